@@ -1,5 +1,6 @@
 package com.gihub.quarkus.criteria.deployment;
 
+import com.github.quarkus.criteria.runtime.CriteriaRecorder;
 import com.github.quarkus.criteria.runtime.criteria.BaseCriteriaSupport;
 import com.github.quarkus.criteria.runtime.criteria.example.ExampleBuilder;
 import com.github.quarkus.criteria.runtime.criteria.example.ExampleDsl;
@@ -10,12 +11,18 @@ import io.quarkus.arc.deployment.BeanRegistrationPhaseBuildItem;
 import io.quarkus.arc.processor.AnnotationsTransformer;
 import io.quarkus.deployment.annotations.BuildProducer;
 import io.quarkus.deployment.annotations.BuildStep;
+import io.quarkus.deployment.annotations.ExecutionTime;
+import io.quarkus.deployment.annotations.Record;
 import io.quarkus.deployment.builditem.CombinedIndexBuildItem;
 import io.quarkus.deployment.builditem.FeatureBuildItem;
 import io.quarkus.deployment.builditem.nativeimage.ReflectiveClassBuildItem;
+import io.quarkus.hibernate.orm.deployment.PersistenceUnitDescriptorBuildItem;
+import io.quarkus.hibernate.orm.deployment.integration.HibernateOrmIntegrationStaticConfiguredBuildItem;
 import org.apache.deltaspike.data.impl.RepositoryExtension;
+import org.apache.deltaspike.data.impl.criteria.QueryCriteria;
 import org.apache.deltaspike.data.impl.tx.ThreadLocalEntityManagerHolder;
 import org.apache.deltaspike.jpa.impl.entitymanager.DefaultEntityManagerHolder;
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.jboss.jandex.ClassInfo;
 import org.jboss.jandex.DotName;
 
@@ -27,6 +34,8 @@ import java.util.stream.Collectors;
 
 public class QuarkusCriteriaProcessor {
 
+    private static final String ORDER_WRITES = "criteria.unit-of-work.order-writes";
+
     private static final List<String> BEANS_TO_VETO = Arrays.asList("org.apache.deltaspike.jpa.impl.entitymanager.DefaultEntityManagerHolder",
             "org.apache.deltaspike.data.impl.RepositoryExtension", "org.apache.deltaspike.jpa.impl.entitymanager.EntityManagerRefLookup",
             "org.apache.deltaspike.jpa.spi.transaction.TransactionStrategy",
@@ -40,6 +49,19 @@ public class QuarkusCriteriaProcessor {
         feature.produce(new FeatureBuildItem("quarkus-criteria"));
     }
 
+    @BuildStep
+    @Record(ExecutionTime.STATIC_INIT)
+    void orderWrites(CriteriaRecorder recorder, List<PersistenceUnitDescriptorBuildItem> persistenceUnits,
+                     BuildProducer<HibernateOrmIntegrationStaticConfiguredBuildItem> integrations) {
+        if (!ConfigProvider.getConfig().getOptionalValue(ORDER_WRITES, Boolean.class).orElse(Boolean.FALSE)) {
+            return;
+        }
+        for (PersistenceUnitDescriptorBuildItem persistenceUnit : persistenceUnits) {
+            integrations.produce(new HibernateOrmIntegrationStaticConfiguredBuildItem("quarkus-criteria", persistenceUnit.getPersistenceUnitName())
+                    .setInitListener(recorder.createStaticInitListener()));
+        }
+    }
+
     @BuildStep
     void removeBeans(BeanRegistrationPhaseBuildItem beanRegistrationPhase) {
         beanRegistrationPhase.getContext()
@@ -84,6 +106,8 @@ public class QuarkusCriteriaProcessor {
         reflectiveClassBuildItemProducer.produce(
                 new ReflectiveClassBuildItem(false, false, classesToRegisterForReflection
                         .toArray(new String[classesToRegisterForReflection.size()])));
+        //claim reads the order by processor of criteria reflectively
+        reflectiveClassBuildItemProducer.produce(new ReflectiveClassBuildItem(false, true, QueryCriteria.class.getName()));
     }
 
 }
@@ -0,0 +1,53 @@
+package com.github.quarkus.criteria.model;
+
+
+import com.github.quarkus.criteria.runtime.model.BaseEntity;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/**
+ * Entity with a timestamp version
+ */
+@Entity
+@Table(name = "dealer")
+public class Dealer extends BaseEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Integer id;
+
+    private String name;
+
+    @Version
+    private Timestamp updatedAt;
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Dealer setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public Timestamp getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Timestamp updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "Dealer{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                '}';
+    }
+}
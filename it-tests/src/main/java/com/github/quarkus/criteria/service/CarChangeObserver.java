@@ -0,0 +1,37 @@
+package com.github.quarkus.criteria.service;
+
+import com.github.quarkus.criteria.model.Brand;
+import com.github.quarkus.criteria.model.Car;
+import com.github.quarkus.criteria.runtime.event.ChangedEntity;
+import com.github.quarkus.criteria.runtime.event.EntityChangeEvent;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.ObservesAsync;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Collects the change events of cars and brands, see {@link com.github.quarkus.criteria.runtime.service.CrudService#enableChangeEvents()}
+ */
+@ApplicationScoped
+public class CarChangeObserver {
+
+    private final BlockingQueue<EntityChangeEvent> carChanges = new LinkedBlockingQueue<>();
+    private final BlockingQueue<EntityChangeEvent> brandChanges = new LinkedBlockingQueue<>();
+
+    void onCarChange(@ObservesAsync @ChangedEntity(Car.class) EntityChangeEvent event) {
+        carChanges.add(event);
+    }
+
+    void onBrandChange(@ObservesAsync @ChangedEntity(Brand.class) EntityChangeEvent event) {
+        brandChanges.add(event);
+    }
+
+    public BlockingQueue<EntityChangeEvent> getCarChanges() {
+        return carChanges;
+    }
+
+    public BlockingQueue<EntityChangeEvent> getBrandChanges() {
+        return brandChanges;
+    }
+}
@@ -11,6 +11,8 @@ import javax.inject.Inject;
 import javax.persistence.criteria.JoinType;
 import javax.transaction.Transactional;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static com.github.quarkus.criteria.runtime.util.CriteriaUtils.toListOfIds;
@@ -76,22 +78,36 @@ public class CarService extends CrudService<Car> implements Serializable {
         validate(car);
     }
 
-    public void validate(Car car) {
-        if (!car.hasModel()) {
-            throw new RuntimeException("Car model cannot be empty");
-        }
-        if (!car.hasName()) {
-            throw new RuntimeException("Car name cannot be empty");
-        }
+    @Override
+    public void beforeInsertBatch(List<Car> cars) {
+        validate(cars);
+    }
 
-        if (car.setPrice() == null) {
-            throw new RuntimeException("Car price cannot be empty");
-        }
+    @Override
+    public void beforeUpdateBatch(List<Car> cars) {
+        validate(cars);
+    }
 
-        if (count(criteria()
-                .eqIgnoreCase(Car_.name, car.getName())
-                .notEq(Car_.id, car.getId())) > 0) {
+    public void validate(Car car) {
+        validate(Collections.singletonList(car));
+    }
 
+    /**
+     * Validates all cars with a single uniqueness query
+     */
+    public void validate(List<Car> cars) {
+        for (Car car : cars) {
+            if (!car.hasModel()) {
+                throw new RuntimeException("Car model cannot be empty");
+            }
+            if (!car.hasName()) {
+                throw new RuntimeException("Car name cannot be empty");
+            }
+            if (car.setPrice() == null) {
+                throw new RuntimeException("Car price cannot be empty");
+            }
+        }
+        if (!findUniqueConflicts(cars, true, Car_.name).isEmpty()) {
             throw new RuntimeException("Car name must be unique");
         }
     }
@@ -134,7 +150,7 @@ public class CarService extends CrudService<Car> implements Serializable {
     }
 
     public List<Car> findCarsInList(List<Car> carsToFind) {
-        return criteria().in(Car_.id, toListOfIds(carsToFind, new Integer[0])).getResultList();
+        return findByIds(Arrays.asList(toListOfIds(carsToFind, new Integer[0])));
     }
 
     //just to test criteria on a different entity
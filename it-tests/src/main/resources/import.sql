@@ -0,0 +1 @@
+create table crud_outbox (id bigint generated by default as identity, entity varchar(255) not null, entity_id varchar(255), version varchar(64), operation varchar(16) not null, attributes varchar(4000), created_at timestamp not null, primary key (id));
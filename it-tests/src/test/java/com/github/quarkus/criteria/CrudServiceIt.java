@@ -5,19 +5,74 @@ import com.github.database.rider.core.api.dataset.DataSet;
 import com.github.database.rider.core.configuration.DataSetConfig;
 import com.github.database.rider.core.dsl.RiderDSL;
 import com.github.quarkus.criteria.model.*;
+import com.github.quarkus.criteria.runtime.cache.EntityCaches;
+import com.github.quarkus.criteria.runtime.cache.NearCache;
+import com.github.quarkus.criteria.runtime.event.ChangeEventPublisher;
+import com.github.quarkus.criteria.runtime.event.EntityChangeEvent;
+import com.github.quarkus.criteria.runtime.metrics.CrudMetrics;
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
 import com.github.quarkus.criteria.runtime.model.Filter;
+import com.github.quarkus.criteria.runtime.model.IdFilterStrategy;
+import com.github.quarkus.criteria.runtime.model.MissingIdPolicy;
+import com.github.quarkus.criteria.runtime.model.Page;
+import com.github.quarkus.criteria.runtime.model.QueryOptions;
+import com.github.quarkus.criteria.runtime.model.RetryPolicy;
+import com.github.quarkus.criteria.runtime.model.ScanProgress;
 import com.github.quarkus.criteria.runtime.model.SortType;
+import com.github.quarkus.criteria.runtime.service.AsyncCrudService;
+import com.github.quarkus.criteria.runtime.service.ContextualWork;
+import com.github.quarkus.criteria.runtime.service.CriteriaExecutor;
 import com.github.quarkus.criteria.runtime.service.CrudService;
 import com.github.quarkus.criteria.runtime.service.Service;
+import com.github.quarkus.criteria.runtime.service.OutboxRelay;
+import com.github.quarkus.criteria.runtime.service.SingleFlight;
+import com.github.quarkus.criteria.runtime.service.SingleFlights;
+import com.github.quarkus.criteria.runtime.service.UnitOfWork;
+import com.github.quarkus.criteria.service.CarChangeObserver;
 import com.github.quarkus.criteria.service.CarService;
 import io.quarkus.test.junit.QuarkusTest;
+import org.apache.deltaspike.data.api.criteria.Criteria;
+import org.assertj.core.data.Offset;
+import org.hibernate.JDBCException;
+import org.hibernate.Session;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.exception.internal.SQLStateConversionDelegate;
 import org.junit.jupiter.api.Test;
 
 import javax.inject.Inject;
+import javax.persistence.LockModeType;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+import javax.persistence.metamodel.SingularAttribute;
 import javax.sql.DataSource;
+import javax.transaction.TransactionRequiredException;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.transaction.TransactionalException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.github.quarkus.criteria.runtime.util.CriteriaUtils.toListOfIds;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
@@ -34,6 +89,33 @@ public class CrudServiceIt {
     @Inject
     CarService carService;
 
+    @Inject
+    ContextualWork contextualWork;
+
+    @Inject
+    CriteriaExecutor criteriaExecutor;
+
+    @Inject
+    UnitOfWork unitOfWork;
+
+    @Inject
+    OutboxRelay outboxRelay;
+
+    @Inject
+    CarChangeObserver carChangeObserver;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    @Inject
+    ChangeEventPublisher changeEventPublisher;
+
+    @Inject
+    EntityCaches entityCaches;
+
+    @Inject
+    SingleFlights singleFlights;
+
     @Inject
     @Service
     CrudService<Car> carCrud;
@@ -50,6 +132,10 @@ public class CrudServiceIt {
     @Service
     CrudService<Brand> brandCrud;
 
+    @Inject
+    @Service
+    CrudService<Dealer> dealerCrud;
+
     @Test
     @DataSet("cars.yml")
     public void shouldCountCars() {
@@ -589,6 +675,990 @@ public class CrudServiceIt {
         assertThat(carCrud.count()).isEqualTo(0L);
     }
 
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFindCarByIdUsingNearCache() throws SQLException {
+        carCrud.enableNearCache(10, Duration.ofMinutes(1), false);
+        try {
+            Car car = carCrud.findById(-1);
+            assertThat(entityCaches.nearCache(Car.class).size()).isEqualTo(1);
+            car.setName("not persisted name");
+            carCrud.getEntityManager().clear();
+            executeStatement("UPDATE car SET name = 'name changed outside' WHERE id = -1");
+            Car cachedCar = carCrud.findById(-1L); //a Long id finds the entry of the Integer key
+            assertThat(cachedCar).isNotSameAs(car)
+                    .extracting("name")
+                    .contains("ferrari spider");
+            carCrud.update(cachedCar.setName("ferrari updated"));
+            assertThat(entityCaches.nearCache(Car.class).size()).isEqualTo(0);
+        } finally {
+            carCrud.disableNearCache();
+        }
+        assertThat(entityCaches.nearCache(Car.class)).isNull();
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldRevalidateNearCacheEntryUsingVersion() throws SQLException {
+        carCrud.enableNearCache(10, Duration.ofMinutes(1), true);
+        try {
+            carCrud.findById(-1);
+            carCrud.getEntityManager().clear();
+            assertThat(carCrud.findById(-1)).extracting("name")
+                    .contains("ferrari spider");
+            executeStatement("UPDATE car SET name = 'name changed outside', version = version + 1 WHERE id = -1");
+            carCrud.getEntityManager().clear();
+            assertThat(carCrud.findById(-1)).extracting("name")
+                    .contains("name changed outside");
+        } finally {
+            carCrud.disableNearCache();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldEvictNearCacheEntriesAgainAfterCommit() {
+        carCrud.enableNearCache(10, Duration.ofMinutes(1), false);
+        try {
+            contextualWork.inNewTransaction(() -> {
+                carCrud.update(carCrud.findById(-1).setName("ferrari updated"));
+                //a lookup outside of the transaction caches the committed row before the commit
+                Car committed = criteriaExecutor.supplyAsync(() -> carCrud.findById(-1)).join();
+                assertThat(committed.getName()).isEqualTo("ferrari spider");
+                assertThat(entityCaches.nearCache(Car.class).size()).isEqualTo(1);
+                return null;
+            });
+            assertThat(entityCaches.nearCache(Car.class).size()).isEqualTo(0);
+            carCrud.getEntityManager().clear();
+            assertThat(carCrud.findById(-1)).extracting("name")
+                    .contains("ferrari updated");
+            //a snapshot read before an eviction is not put back once the eviction happened
+            NearCache<Car> nearCache = entityCaches.nearCache(Car.class);
+            long generation = nearCache.generation(-2);
+            Car stale = new Car(-2).setName("stale");
+            entityCaches.evict(Car.class, Collections.singleton(-2));
+            nearCache.put(-2, stale, 0, generation);
+            assertThat(nearCache.lookup(-2)).isNull();
+            nearCache.put(-2, stale, 0, nearCache.generation(-2));
+            assertThat(nearCache.lookup(-2)).isNotNull();
+        } finally {
+            carCrud.disableNearCache();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldSkipNearCacheInsideTransaction() {
+        carCrud.enableNearCache(10, Duration.ofMinutes(1), false);
+        try {
+            carCrud.findById(-1);
+            assertThat(entityCaches.nearCache(Car.class).size()).isEqualTo(1);
+            contextualWork.inNewTransaction(() -> {
+                Car car = carCrud.findById(-1);
+                assertThat(carCrud.getEntityManager().contains(car)).isTrue();
+                car.setName("ferrari dirty checked");
+                return null;
+            });
+            assertThat(entityCaches.nearCache(Car.class).size()).isEqualTo(0);
+            carCrud.getEntityManager().clear();
+            assertThat(carCrud.findById(-1)).extracting("name")
+                    .contains("ferrari dirty checked");
+        } finally {
+            carCrud.disableNearCache();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldRememberMissingIdsUntilNextInsert() throws SQLException {
+        carCrud.enableNegativeCache(100, Duration.ofMinutes(1));
+        try {
+            long missesBefore = carCrud.getMetrics().get(CrudMetrics.FIND_BY_ID_MISS);
+            assertThat(carCrud.findById(-99)).isNull();
+            assertThat(entityCaches.negativeCache(Car.class).isMissing(-99)).isTrue();
+            executeStatement("INSERT INTO car (id, model, name, price, version) VALUES (-99, 'Ford', 'ford ka', 1000, 0)");
+            assertThat(carCrud.findById(-99)).isNull();
+            assertThat(carCrud.findById(-99L)).isNull(); //a Long id hits the entry of the Integer key
+            assertThat(carCrud.getMetrics().get(CrudMetrics.FIND_BY_ID_MISS)).isEqualTo(missesBefore + 3);
+            assertThat(carCrud.getMetrics().get(CrudMetrics.NEGATIVE_CACHE_HIT)).isGreaterThanOrEqualTo(2);
+            carService.insert(new Car().setModel("Fiat").setName("fiat uno").setPrice(500d));
+            assertThat(entityCaches.negativeCache(Car.class).size()).isEqualTo(0);
+            assertThat(carCrud.findById(-99)).isNotNull()
+                    .extracting("name")
+                    .contains("ford ka");
+        } finally {
+            carCrud.disableNegativeCache();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldClearNegativeCacheAgainWhenInsertCommits() {
+        carCrud.enableNegativeCache(100, Duration.ofMinutes(1));
+        try {
+            Integer id = contextualWork.inNewTransaction(() -> {
+                Integer insertedId = carCrud.insert(new Car().setModel("Fiat").setName("fiat uno").setPrice(500d)).getId();
+                //a lookup outside of the transaction doesn't see the insert before the commit
+                assertThat(criteriaExecutor.supplyAsync(() -> carCrud.findById(insertedId)).join()).isNull();
+                assertThat(entityCaches.negativeCache(Car.class).isMissing(insertedId)).isTrue();
+                return insertedId;
+            });
+            assertThat(entityCaches.negativeCache(Car.class).isMissing(id)).isFalse();
+            assertThat(carCrud.findById(id)).isNotNull();
+        } finally {
+            carCrud.disableNegativeCache();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldDiscardOldestMissingIdsWhenNegativeCacheIsFull() {
+        carCrud.enableNegativeCache(2, Duration.ofMinutes(1));
+        try {
+            carCrud.findById(-97);
+            carCrud.findById(-98);
+            carCrud.findById(-99);
+            assertThat(entityCaches.negativeCache(Car.class).size()).isEqualTo(2);
+            assertThat(entityCaches.negativeCache(Car.class).isMissing(-97)).isFalse();
+            assertThat(entityCaches.negativeCache(Car.class).isMissing(-98)).isTrue();
+            assertThat(entityCaches.negativeCache(Car.class).isMissing(-99)).isTrue();
+        } finally {
+            carCrud.disableNegativeCache();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldCoalesceLookupsById() throws Exception {
+        carService.enableBatchLoading(10, Duration.ofMillis(100));
+        long batchesBefore = carService.getMetrics().get(CrudMetrics.BATCH_LOAD);
+        CompletionStage<Car> ferrari = carService.loadById(-1);
+        CompletionStage<Car> mustang = carCrud.loadById(-2); //the loader is shared by all services of the entity
+        CompletionStage<Car> sameFerrari = carCrud.loadById(-1);
+        CompletionStage<Car> notFound = carService.loadById(-99);
+        CompletionStage<Car> porcheByLongId = carService.loadById(-3L);
+        assertThat(carService.loadById(-1L)).isSameAs(ferrari);
+        CompletableFuture.allOf(ferrari.toCompletableFuture(), mustang.toCompletableFuture(),
+                sameFerrari.toCompletableFuture(), notFound.toCompletableFuture(), porcheByLongId.toCompletableFuture()).get();
+        assertThat(ferrari.toCompletableFuture().get()).extracting("model").contains("Ferrari");
+        assertThat(porcheByLongId.toCompletableFuture().get()).extracting("id").contains(-3);
+        assertThat(mustang.toCompletableFuture().get()).extracting("model").contains("Mustang");
+        assertThat(sameFerrari).isSameAs(ferrari);
+        assertThat(notFound.toCompletableFuture().get()).isNull();
+        assertThat(carService.getMetrics().get(CrudMetrics.BATCH_LOAD)).isEqualTo(batchesBefore + 1);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldDispatchLookupsByIdWhenBatchIsFull() throws Exception {
+        carService.enableBatchLoading(2, Duration.ofMinutes(1));
+        CompletionStage<Car> ferrari = carService.loadById(-1);
+        CompletionStage<Car> mustang = carService.loadById(-2);
+        assertThat(ferrari.toCompletableFuture().get()).extracting("id").contains(-1);
+        assertThat(mustang.toCompletableFuture().get()).extracting("id").contains(-2);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldPaginateAndCountInSingleFlightMode() {
+        carService.enableSingleFlight();
+        try {
+            Filter<Car> carFilter = new Filter<Car>().setFirst(0).setPageSize(2)
+                    .setSortType(SortType.ASCENDING)
+                    .setSortField(Car_.id.getName())
+                    .addParam("minPrice", 2000D);
+            List<Car> cars = carService.paginate(carFilter);
+            assertThat(cars).hasSize(2)
+                    .extracting("id")
+                    .contains(-4, -2);
+            assertThat(carService.getEntityManager().contains(cars.get(0))).isFalse();
+            assertThat(carService.count(carFilter)).isEqualTo(3L);
+        } finally {
+            carService.disableSingleFlight();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldGenerateSameFingerprintForIdenticalQueries() {
+        Object fingerprint = SingleFlight.fingerprint(carService.criteria()
+                .eq(Car_.model, "Ferrari").createQuery().setMaxResults(10));
+        Object sameFingerprint = SingleFlight.fingerprint(carService.criteria()
+                .eq(Car_.model, "Ferrari").createQuery().setMaxResults(10));
+        Object anotherFingerprint = SingleFlight.fingerprint(carService.criteria()
+                .eq(Car_.model, "Porche").createQuery().setMaxResults(10));
+        Object anotherPageFingerprint = SingleFlight.fingerprint(carService.criteria()
+                .eq(Car_.model, "Ferrari").createQuery().setMaxResults(20));
+        assertThat(fingerprint).isEqualTo(sameFingerprint)
+                .isNotEqualTo(anotherFingerprint)
+                .isNotEqualTo(anotherPageFingerprint);
+    }
+
+    @Test
+    public void shouldShareInFlightExecution() throws Exception {
+        SingleFlight singleFlight = singleFlights.enable(SalesPoint.class);
+        try {
+            CountDownLatch leaderStarted = new CountDownLatch(1);
+            CountDownLatch releaseLeader = new CountDownLatch(1);
+            CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> singleFlight.execute("key", () -> {
+                leaderStarted.countDown();
+                try {
+                    releaseLeader.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "leader result";
+            }));
+            assertThat(leaderStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> singleFlight.execute("key", () -> "follower result"));
+            while (singleFlight.waiting() == 0) {
+                Thread.sleep(5);
+            }
+            releaseLeader.countDown();
+            assertThat(leader.get()).isEqualTo("leader result");
+            assertThat(follower.get()).isEqualTo("leader result");
+            assertThat(singleFlight.execute("key", () -> "new execution")).isEqualTo("new execution");
+        } finally {
+            singleFlights.disable(SalesPoint.class);
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFindCarsByIdsInInputOrder() {
+        assertThat(carService.findByIds(Arrays.asList(-3, 99, -1, -2, -3)))
+                .extracting("id")
+                .containsExactly(-3, -1, -2, -3);
+        assertThat(carService.findByIds(Arrays.asList(-2, 99, -1), MissingIdPolicy.NULL))
+                .extracting(car -> car == null ? null : car.getId())
+                .containsExactly(-2, null, -1);
+        try {
+            carService.findByIds(Arrays.asList(-1, 99), MissingIdPolicy.FAIL);
+            fail("Missing ids should fail");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).contains("[99]");
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFindCarsByIdsInParallelChunks() {
+        carService.configureFindByIds(2, true);
+        try {
+            assertThat(carService.findByIds(Arrays.asList(-4, -3, -2, -1, 99)))
+                    .extracting("id")
+                    .containsExactly(-4, -3, -2, -1);
+        } finally {
+            carService.configureFindByIds(512, false);
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFallbackToInListWhenArrayParameterIsNotSupported() {
+        carService.useIdFilterStrategy(IdFilterStrategy.ARRAY_PARAMETER);
+        try {
+            assertThat(carService.findByIds(Arrays.asList(-2, -1)))
+                    .extracting("id")
+                    .containsExactly(-2, -1);
+            assertThat(carService.deleteBatch(carService.findByIds(Arrays.asList(-4, -3)), 10)).isEqualTo(2);
+        } finally {
+            carService.useIdFilterStrategy(IdFilterStrategy.IN_LIST);
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFindAndDeleteCarsByIdsUsingTempTable() {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            ids.add(i % 2 == 0 ? -1 - (i % 4) : 1000 + i);
+        }
+        assertThat(carService.findByIdsUsingTempTable(ids))
+                .extracting("id")
+                .containsOnly(-1, -3);
+        assertThat(carService.deleteByIdsUsingTempTable(Arrays.asList(-2, -4, 99))).isEqualTo(2);
+        assertThat(carService.findByIdsUsingTempTable(Arrays.asList(-1, -2, -3, -4)))
+                .extracting("id")
+                .containsOnly(-1, -3);
+        //the temporary table is reused and emptied within a transaction
+        assertThat(unitOfWork.execute(() -> {
+            assertThat(carService.findByIdsUsingTempTable(Arrays.asList(-1, 99))).extracting("id").containsOnly(-1);
+            return carService.findByIdsUsingTempTable(Collections.singletonList(-3));
+        })).extracting("id").containsOnly(-3);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldRunOperationsAsynchronously() throws Exception {
+        AsyncCrudService<Car> asyncCarService = carService.async();
+        Filter<Car> filter = new Filter<>(new Car().setModel("Ferrari"));
+        assertThat(asyncCarService.count(filter).toCompletableFuture().get(5, TimeUnit.SECONDS)).isEqualTo(1);
+        List<Car> cars = asyncCarService.findByExample(new Car().setModel("Ferrari"), dsl -> dsl.with(Car_.model).build())
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertThat(cars).hasSize(1);
+        assertThat(cars.get(0).getId()).isEqualTo(-1);
+        Car inserted = asyncCarService.mutiny()
+                .insert(new Car().setModel("Async").setName("async car").setPrice(1d))
+                .await().atMost(Duration.ofSeconds(5));
+        assertThat(inserted.getId()).isNotNull();
+        assertThat(asyncCarService.mutiny().findById(inserted.getId()).await().atMost(Duration.ofSeconds(5)).getName())
+                .isEqualTo("async car");
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldPaginateWithTotal() {
+        Filter<Car> filter = new Filter<Car>()
+                .setFirst(0)
+                .setPageSize(2)
+                .setSortField("id")
+                .setSortType(SortType.ASCENDING);
+        Page<Car> page = carService.paginateWithTotal(filter);
+        assertThat(page.getTotal()).isEqualTo(4);
+        assertThat(page.getContent()).extracting("id").containsExactly(-4, -3);
+        assertThat(page.hasNext()).isTrue();
+        assertThat(carService.paginateWithTotal(filter.setFirst(2)).hasNext()).isFalse();
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldProcessCarsInParallelPartitions() {
+        double totalPrice = carService.list().stream().mapToDouble(car -> car.setPrice()).sum();
+        List<ScanProgress> progress = Collections.synchronizedList(new ArrayList<>());
+        long processed = carService.processInParallel(carService.criteria(), 2, 1,
+                cars -> cars.forEach(car -> car.setPrice(car.setPrice() * 2)), progress::add);
+        assertThat(processed).isEqualTo(4);
+        carService.getEntityManager().clear();
+        assertThat(carService.list().stream().mapToDouble(car -> car.setPrice()).sum()).isCloseTo(totalPrice * 2, Offset.offset(0.01));
+        assertThat(progress).extracting("completedPartitions").contains(2);
+        assertThat(progress).extracting("percentage").contains(100);
+        assertThat(carService.processInParallel(carService.criteria().gt(Car_.price, 10_000d), 3, cars -> {})).isEqualTo(2);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldRunServiceCallsOnVirtualThreadsOrFallBackToThreadPool() throws Exception {
+        assertFalse(criteriaExecutor.isRunningOnVirtualThreads()); //virtual threads are opt-in
+        CriteriaExecutor executor = new CriteriaExecutor();
+        setField(executor, "contextualWork", contextualWork);
+        setField(executor, "virtualThreads", true);
+        setField(executor, "maxThreads", 2);
+        setField(executor, "queueSize", 100);
+        executor.init();
+        try {
+            boolean supported = Arrays.stream(Executors.class.getMethods())
+                    .anyMatch(method -> method.getName().equals("newVirtualThreadPerTaskExecutor"));
+            assertEquals(supported, executor.isRunningOnVirtualThreads());
+            List<CompletableFuture<Thread>> tasks = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                tasks.add(executor.supplyAsync(() -> {
+                    assertThat(carCrud.findById(-1)).isNotNull(); //sync service calls run with an active request context
+                    return Thread.currentThread();
+                }));
+            }
+            tasks.add(executor.supplyAsyncInNewTransaction(() -> {
+                carCrud.update(carCrud.findById(-2).setPrice(1d));
+                return Thread.currentThread();
+            }));
+            for (CompletableFuture<Thread> task : tasks) {
+                Thread thread = task.get(5, TimeUnit.SECONDS);
+                if (supported) {
+                    assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+                } else {
+                    assertThat(thread.getName()).startsWith("criteria-executor-");
+                }
+            }
+            assertThat(carCrud.findById(-2).setPrice()).isEqualTo(1d);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldProcessPartitionsOnCallerThreadWhenCalledFromExecutorTask() throws Exception {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        CompletableFuture<String> task = criteriaExecutor.supplyAsync(() -> {
+            carService.processInParallel(carService.criteria(), 4, 1, cars -> threads.add(Thread.currentThread().getName()), progress -> {});
+            return Thread.currentThread().getName();
+        });
+        assertThat(threads).containsOnly(task.get(5, TimeUnit.SECONDS));
+        assertFalse(criteriaExecutor.isRunningTask());
+    }
+
+    @Test
+    @DataSet("cars-full.yml")
+    public void shouldNotRepeatEntitiesOfToManyJoinsAcrossChunks() {
+        List<Integer> processedIds = new ArrayList<>();
+        long processed = carService.processInChunks(carService.criteria()
+                        .join(Car_.carSalesPoints, carService.where(CarSalesPoint.class)), 2, null,
+                cars -> cars.forEach(car -> processedIds.add(car.getId())), checkpoint -> {});
+        assertThat(processedIds).containsExactly(1, 2, 3, 4);
+        assertThat(processed).isEqualTo(4);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldProcessCarsInChunksAndResumeFromCheckpoint() {
+        List<Serializable> checkpoints = new ArrayList<>();
+        try {
+            carService.processInChunks(carService.criteria(), 2, null, cars -> {
+                if (cars.get(0).getId() == -2) {
+                    throw new RuntimeException("Chunk failure");
+                }
+                cars.forEach(carService.getEntityManager()::remove);
+            }, checkpoints::add);
+            fail("Second chunk should fail");
+        } catch (RuntimeException e) {
+            assertEquals("Chunk failure", e.getMessage());
+        }
+        assertThat(checkpoints).containsExactly(-3);
+        assertThat(carService.count()).isEqualTo(2);
+        long processed = carService.processInChunks(carService.criteria(), 2, checkpoints.get(0),
+                cars -> cars.forEach(carService.getEntityManager()::remove), checkpoints::add);
+        assertThat(processed).isEqualTo(2);
+        assertThat(checkpoints).containsExactly(-3, -1);
+        assertThat(carService.count()).isEqualTo(0);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldClaimCarsInTransaction() {
+        Criteria<Car, Car> expensive = carService.criteria().gt(Car_.price, 2000d);
+        List<Car> claimed = contextualWork.inNewTransaction(() -> carService.claim(expensive, 2));
+        assertThat(claimed).extracting("id").containsExactly(-4, -2);
+        assertThat(contextualWork.inNewTransaction(() -> carService.claim(expensive, 2))).extracting("id").containsExactly(-4, -2);
+        assertThat(expensive.getResultList()).hasSize(3);
+        Criteria<Car, Car> cheapestFirst = carService.criteria().gt(Car_.price, 2000d).orderAsc(Car_.price);
+        assertThat(contextualWork.inNewTransaction(() -> carService.claim(cheapestFirst, 2))).extracting("id").containsExactly(-1, -2);
+        Criteria<Car, Car> byModel = carService.criteria().in(Car_.model, "Porche", "Porche274").orderAsc(Car_.name).orderDesc(Car_.price);
+        assertThat(contextualWork.inNewTransaction(() -> carService.claim(byModel, 1))).extracting("id").containsExactly(-3);
+        try {
+            carService.claim(carService.criteria(), 1);
+            fail("Claim should require a transaction");
+        } catch (TransactionalException e) {
+            assertThat(e.getCause()).isInstanceOf(TransactionRequiredException.class);
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldApplyQueryOptions() {
+        QueryOptions readOnly = new QueryOptions()
+                .setReadOnly(true)
+                .setFetchSize(50)
+                .setTimeout(5000)
+                .setComment("cars list");
+        Filter<Car> filter = new Filter<Car>()
+                .setPageSize(2)
+                .setQueryOptions(readOnly);
+        List<Car> cars = carService.paginate(filter);
+        assertThat(cars).hasSize(2);
+        Session session = carService.getEntityManager().unwrap(Session.class);
+        assertThat(cars).allMatch(session::isReadOnly);
+        assertThat(carService.count(filter)).isEqualTo(4);
+        assertThat(carService.list(readOnly)).hasSize(4);
+        assertThat(carService.exampleBuilder.of(new Car().setModel("Ferrari")).with(Car_.model).createQuery(readOnly).getResultList())
+                .hasSize(1);
+        Car locked = contextualWork.inNewTransaction(() -> {
+            Car car = carService.findById(-1, new QueryOptions().setLockMode(LockModeType.PESSIMISTIC_WRITE));
+            assertThat(carService.getEntityManager().getLockMode(car)).isEqualTo(LockModeType.PESSIMISTIC_WRITE);
+            return car;
+        });
+        assertThat(locked.getId()).isEqualTo(-1);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldUpsertCarsByIdAndByNaturalKey() {
+        Car ferrari = new Car(-1).setModel("Ferrari").setName("ferrari enzo").setPrice(3000d);
+        assertThat(carService.upsert(ferrari)).isEqualTo(1);
+        assertThat(carService.upsert(new Car(-10).setModel("Fusca").setName("fusca").setPrice(10d))).isEqualTo(1);
+        carService.getEntityManager().clear();
+        Car updated = carService.findById(-1);
+        assertThat(updated.getName()).isEqualTo("ferrari enzo");
+        assertThat(updated.getVersion()).isEqualTo(1);
+        assertThat(carService.findById(-10).getVersion()).isEqualTo(0);
+        List<Car> cars = Arrays.asList(new Car().setModel("Mustang").setName("mustang spider").setPrice(1d),
+                new Car().setModel("Gol").setName("gol").setPrice(2d));
+        assertThat(carService.upsertBatch(cars, Car_.name)).isEqualTo(2);
+        carService.getEntityManager().clear();
+        assertThat(carService.count()).isEqualTo(6);
+        assertThat(carService.findById(-2).setPrice()).isEqualTo(1d);
+        assertThat(carService.criteria().eq(Car_.name, "gol").getSingleResult().getId()).isNotNull();
+        try {
+            carService.upsert(new Car().setName("no id"));
+            fail("Upsert by primary key should require an id");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).contains("needs an id");
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldPatchOnlyGivenAttributesCheckingVersion() {
+        Map<SingularAttribute<? super Car, ?>, Object> values = new HashMap<>();
+        values.put(Car_.price, 100d);
+        assertThat(carService.patch(-1, values)).isEqualTo(1);
+        carService.getEntityManager().clear();
+        Car car = carService.findById(-1);
+        assertThat(car.setPrice()).isEqualTo(100d);
+        assertThat(car.getName()).isEqualTo("ferrari spider");
+        assertThat(car.getVersion()).isEqualTo(1);
+        assertThat(carService.patch(car.setName("ferrari enzo"), Car_.name)).isEqualTo(1);
+        assertThat(car.getVersion()).isEqualTo(2);
+        Car stale = new Car(-1).setName("stale");
+        stale.setVersion(1);
+        try {
+            carService.patch(stale, Car_.name);
+            fail("Patch of a stale version should fail");
+        } catch (OptimisticLockException e) {
+            assertThat(e.getMessage()).contains("version 1");
+        }
+        carService.getEntityManager().clear();
+        Car patched = carService.findById(-1);
+        assertThat(patched.getName()).isEqualTo("ferrari enzo");
+        assertThat(patched.setPrice()).isEqualTo(100d);
+        assertThat(patched.getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldBumpTimestampVersionsWhenPatching() throws InterruptedException {
+        Dealer dealer = dealerCrud.insert(new Dealer().setName("dealer"));
+        try {
+            Timestamp inserted = dealer.getUpdatedAt();
+            assertNotNull(inserted);
+            Thread.sleep(5);
+            Map<SingularAttribute<? super Dealer, ?>, Object> values = new HashMap<>();
+            values.put(Dealer_.name, "patched by id");
+            assertThat(dealerCrud.patch(dealer.getId(), values)).isEqualTo(1);
+            Timestamp patchedById = dealerCrud.findById(dealer.getId()).getUpdatedAt();
+            assertThat(patchedById).isAfter(inserted);
+            try {
+                dealerCrud.patch(dealer.setName("stale"), Dealer_.name);
+                fail("Patch of a stale timestamp version should fail");
+            } catch (OptimisticLockException e) {
+                assertThat(e.getMessage()).contains(dealer.getId().toString());
+            }
+            dealer.setUpdatedAt(patchedById);
+            Thread.sleep(5);
+            assertThat(dealerCrud.patch(dealer.setName("patched"), Dealer_.name)).isEqualTo(1);
+            assertThat(dealer.getUpdatedAt()).isAfter(patchedById);
+            dealerCrud.getEntityManager().clear();
+            Dealer patched = dealerCrud.findById(dealer.getId());
+            assertThat(patched.getName()).isEqualTo("patched");
+            assertThat(patched.getUpdatedAt()).isEqualTo(dealer.getUpdatedAt());
+        } finally {
+            dealerCrud.deleteBatch(Collections.singletonList(dealer), 1);
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldOrderInterleavedWritesOfUnitOfWork() {
+        SessionFactoryOptions options = carService.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class).getSessionFactoryOptions();
+        assertThat(options.isOrderInsertsEnabled()).isTrue();
+        assertThat(options.isOrderUpdatesEnabled()).isTrue();
+        unitOfWork.execute(() -> {
+            for (String name : Arrays.asList("Fiat", "Lada", "Seat")) {
+                Brand brand = brandCrud.insert(new Brand().setName(name));
+                carService.insert(new Car().setModel(name).setName(name + " car").setPrice(10d).setBrand(brand));
+            }
+            return null;
+        });
+        carService.getEntityManager().clear();
+        assertThat(carService.count()).isEqualTo(7);
+        assertThat(carService.findById(carService.criteria().eq(Car_.name, "Lada car").getSingleResult().getId())
+                .getBrand().getName()).isEqualTo("Lada");
+        assertThat(brandCrud.count()).isEqualTo(3);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFlushNewTransactionsStartedInsideUnitOfWork() {
+        unitOfWork.execute(() -> {
+            assertThat(unitOfWork.isActive()).isTrue();
+            contextualWork.inNewTransaction(() -> {
+                assertThat(unitOfWork.isActive()).isFalse();
+                carService.insert(new Car().setModel("Uno").setName("uno mille").setPrice(10d));
+                assertThat(carService.getEntityManager().unwrap(Session.class).isDirty()).isFalse();
+                return null;
+            });
+            assertThat(unitOfWork.isActive()).isTrue();
+            return null;
+        });
+        assertThat(carService.count(carService.criteria().eq(Car_.name, "uno mille"))).isEqualTo(1);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFlushUnitOfWorkOnceAtTheEnd() {
+        Car uno = unitOfWork.execute(() -> {
+            Brand fiat = brandCrud.insert(new Brand().setName("Fiat"));
+            Car car = carService.insert(new Car().setModel("Uno").setName("uno mille").setPrice(10d).setBrand(fiat));
+            carService.update(carService.findById(-1).setPrice(1d));
+            assertThat(unitOfWork.isActive()).isTrue();
+            assertThat(carService.count(carService.criteria().eq(Car_.name, "uno mille"))).isEqualTo(0);
+            return car;
+        });
+        assertThat(unitOfWork.isActive()).isFalse();
+        carService.getEntityManager().clear();
+        assertThat(carService.count()).isEqualTo(5);
+        assertThat(carService.findById(uno.getId()).getBrand().getName()).isEqualTo("Fiat");
+        assertThat(carService.findById(-1).setPrice()).isEqualTo(1d);
+        try {
+            unitOfWork.execute(() -> {
+                brandCrud.insert(new Brand().setName("Lada"));
+                return carService.insert(new Car().setName("niva"));
+            });
+            fail("Car hooks should run in the unit of work");
+        } catch (RuntimeException e) {
+            assertEquals("Car model cannot be empty", e.getMessage());
+        }
+        assertThat(brandCrud.count()).isEqualTo(1);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldInsertAndUpdateCarsInBatches() {
+        List<Car> cars = carService.insertBatch(Arrays.asList(new Car().setModel("Uno").setName("uno").setPrice(1d),
+                new Car().setModel("Gol").setName("gol").setPrice(2d),
+                new Car().setModel("Palio").setName("palio").setPrice(3d)), 2);
+        assertThat(cars).allMatch(car -> car.getId() != null);
+        assertThat(carService.count()).isEqualTo(7);
+        carService.getEntityManager().clear();
+        List<Car> loaded = carService.findByIds(cars.stream().map(Car::getId).collect(Collectors.toList()));
+        loaded.forEach(car -> car.setPrice(car.setPrice() * 10));
+        List<Car> updated = carService.updateBatch(loaded, 2);
+        assertThat(updated).extracting("version").containsOnly(1);
+        carService.getEntityManager().clear();
+        assertThat(carService.findById(cars.get(2).getId()).setPrice()).isEqualTo(30d);
+        try {
+            carService.insertBatch(Arrays.asList(new Car().setModel("Fusca").setName("fusca").setPrice(1d),
+                    new Car().setModel("Mustang").setName("mustang spider").setPrice(1d)), 2);
+            fail("Batch hooks should validate every car");
+        } catch (RuntimeException e) {
+            assertEquals("Car name must be unique", e.getMessage());
+        }
+        assertThat(carService.count()).isEqualTo(7);
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFindUniqueConflictsWithSingleQuery() {
+        Car ferrari = new Car().setModel("Ferrari").setName("FERRARI SPIDER");
+        Car uno = new Car().setName("uno");
+        Car duplicatedUno = new Car().setName("Uno");
+        List<Car> candidates = Arrays.asList(ferrari, uno, duplicatedUno, new Car(-2).setName("mustang spider"), new Car());
+        assertThat(carService.findUniqueConflicts(candidates, true, Car_.name)).containsExactly(ferrari, duplicatedUno);
+        assertThat(carService.findUniqueConflicts(candidates, false, Car_.name)).isEmpty();
+        assertThat(carService.findUniqueConflicts(Arrays.asList(ferrari, new Car().setModel("Porche").setName("porche rally")), true,
+                Car_.model, Car_.name)).containsExactly(ferrari);
+        try {
+            carService.insertBatch(Arrays.asList(new Car().setModel("Uno").setName("uno").setPrice(1d),
+                    new Car().setModel("Uno").setName("UNO").setPrice(1d)), 10);
+            fail("Cars with same name in the batch should conflict");
+        } catch (RuntimeException e) {
+            assertEquals("Car name must be unique", e.getMessage());
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldRetryUpdateOnOptimisticLockFailure() {
+        carService.getMetrics().reset();
+        Car stale = carService.findById(-1);
+        carService.getEntityManager().clear();
+        Map<SingularAttribute<? super Car, ?>, Object> values = new HashMap<>();
+        values.put(Car_.price, 1d);
+        carService.patch(-1, values);
+        carService.useRetryPolicy(new RetryPolicy().setBackoff(Duration.ofMillis(1), Duration.ofMillis(5)));
+        try {
+            Car updated = carService.updateWithRetry(stale.setName("ferrari retried"),
+                    (current, attempted) -> current.setName(attempted.getName()));
+            assertThat(updated.getName()).isEqualTo("ferrari retried");
+            assertThat(updated.setPrice()).isEqualTo(1d);
+            assertThat(updated.getVersion()).isEqualTo(2);
+            assertThat(carService.getMetrics().get(CrudMetrics.RETRY_OPTIMISTIC_LOCK)).isEqualTo(1);
+            carService.useRetryPolicy(new RetryPolicy().setMaxAttempts(1));
+            try {
+                carService.updateWithRetry(stale.setName("ferrari stale"), (current, attempted) -> current);
+                fail("Update of a stale car should fail when retries are exhausted");
+            } catch (RuntimeException e) {
+                assertThat(new RetryPolicy().retryCounterOf(e)).isEqualTo(CrudMetrics.RETRY_OPTIMISTIC_LOCK);
+            }
+            assertThat(carService.getMetrics().get(CrudMetrics.RETRY_EXHAUSTED)).isEqualTo(1);
+        } finally {
+            carService.useRetryPolicy(new RetryPolicy());
+        }
+    }
+
+    @Test
+    public void shouldRetryLockWaitTimeoutsOnlyWhenEnabled() {
+        RuntimeException mysqlLockTimeout = new RuntimeException(new SQLException("Lock wait timeout exceeded", "HY000", 1205));
+        RuntimeException sqlServerDeadlock = new RuntimeException(new SQLException("Transaction was deadlocked", "40001", 1205));
+        assertNull(new RetryPolicy().retryCounterOf(mysqlLockTimeout));
+        assertThat(new RetryPolicy().setRetryLockTimeouts(true).retryCounterOf(mysqlLockTimeout)).isEqualTo(CrudMetrics.RETRY_LOCK_TIMEOUT);
+        assertThat(new RetryPolicy().retryCounterOf(sqlServerDeadlock)).isEqualTo(CrudMetrics.RETRY_DEADLOCK);
+    }
+
+    @Test
+    public void shouldClassifyTranslatedFailuresBySqlState() {
+        SQLStateConversionDelegate converter = new SQLStateConversionDelegate(() -> null);
+        JDBCException serializationFailure = converter.convert(new SQLException("could not serialize access", "40001"), "update failed", "update car");
+        JDBCException postgresDeadlock = new LockAcquisitionException("update failed", new SQLException("deadlock detected", "40P01"));
+        assertThat(serializationFailure).isInstanceOf(LockAcquisitionException.class);
+        assertThat(new RetryPolicy().retryCounterOf(new PersistenceException(serializationFailure))).isEqualTo(CrudMetrics.RETRY_SERIALIZATION);
+        assertThat(new RetryPolicy().retryCounterOf(new PersistenceException(postgresDeadlock))).isEqualTo(CrudMetrics.RETRY_DEADLOCK);
+        assertThat(new RetryPolicy().retryCounterOf(new LockAcquisitionException("lock failed", new SQLException("lock failed", "HY000"))))
+                .isEqualTo(CrudMetrics.RETRY_DEADLOCK);
+        assertNull(new RetryPolicy().setRetryTransientFailures(false).retryCounterOf(serializationFailure));
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldRecordChangesInOutboxAndRelayThem() {
+        carService.enableOutbox();
+        try {
+            outboxRelay.relay(100, records -> {});
+            Car uno = carService.insert(new Car().setModel("Uno").setName("uno").setPrice(1d));
+            carService.update(carService.findById(-1).setPrice(2d));
+            //only deleted rows are recorded
+            assertThat(carService.deleteBatch(Arrays.asList(new Car(-3), new Car(-4), new Car(-99)), 10)).isEqualTo(2);
+            List<ChangeRecord> relayed = new ArrayList<>();
+            assertThat(outboxRelay.relay(3, relayed::addAll)).isEqualTo(4);
+            assertThat(relayed).extracting("operation").containsExactly(ChangeRecord.Operation.INSERT, ChangeRecord.Operation.UPDATE,
+                    ChangeRecord.Operation.DELETE, ChangeRecord.Operation.DELETE);
+            assertThat(relayed.get(0).getEntityId()).isEqualTo(uno.getId().toString());
+            assertThat(relayed.get(1).getAttributes()).containsExactly("price");
+            assertThat(relayed.get(1).getVersion()).isEqualTo("1");
+            assertThat(relayed).extracting("entity").containsOnly(Car.class.getName());
+            carService.delete(carService.findById(-2));
+            try {
+                outboxRelay.relay(10, records -> {
+                    throw new RuntimeException("Relay failure");
+                });
+                fail("Relay handler failure should be propagated");
+            } catch (RuntimeException e) {
+                assertEquals("Relay failure", e.getMessage());
+            }
+            assertThat(outboxRelay.relay(10, records -> {})).isEqualTo(1);
+        } finally {
+            carService.disableOutbox();
+        }
+    }
+
+    @Test
+    public void shouldNotEnableOutboxWhenTableIsMissing() {
+        try {
+            carService.enableOutbox("missing_outbox");
+            fail("Outbox should not be enabled without its table");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).isEqualTo("Outbox table missing_outbox doesn't exist, create it with the DDL of the "
+                    + "'Change outbox' section of the README before enabling the outbox.");
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldRecordFlushedVersionsOfUnitOfWorkAndPatches() throws InterruptedException {
+        carService.enableOutbox();
+        carService.enableChangeEvents();
+        try {
+            outboxRelay.relay(100, records -> {});
+            carChangeObserver.getCarChanges().clear();
+            unitOfWork.execute(() -> carService.update(carService.findById(-1).setPrice(2d)));
+            Map<SingularAttribute<? super Car, ?>, Object> values = new HashMap<>();
+            values.put(Car_.price, 3d);
+            carService.patch(-2, values);
+            List<ChangeRecord> relayed = new ArrayList<>();
+            assertThat(outboxRelay.relay(10, relayed::addAll)).isEqualTo(2);
+            assertThat(relayed).extracting("entityId").containsExactly("-1", "-2");
+            assertThat(relayed).extracting("version").containsExactly("1", "1");
+            for (int i = 0; i < 2; i++) {
+                EntityChangeEvent update = carChangeObserver.getCarChanges().poll(5, TimeUnit.SECONDS);
+                assertNotNull(update);
+                assertThat(update.getVersion()).isEqualTo(1);
+            }
+        } finally {
+            carService.disableOutbox();
+            carService.disableChangeEvents();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldNotRecordUpserts() throws InterruptedException {
+        carService.enableOutbox();
+        carService.enableChangeEvents();
+        try {
+            outboxRelay.relay(100, records -> {});
+            carChangeObserver.getCarChanges().clear();
+            carService.upsert(new Car(-1).setModel("Ferrari").setName("ferrari spider").setPrice(1d));
+            carService.upsertBatch(Collections.singletonList(new Car(-10).setModel("Fusca").setName("fusca").setPrice(10d)));
+            assertThat(outboxRelay.relay(10, records -> {})).isEqualTo(0);
+            assertNull(carChangeObserver.getCarChanges().poll(200, TimeUnit.MILLISECONDS));
+            assertThat(carService.count()).isEqualTo(5);
+        } finally {
+            carService.disableOutbox();
+            carService.disableChangeEvents();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldFireCoalescedChangeEventsAfterCommit() throws InterruptedException {
+        carService.enableChangeEvents();
+        try {
+            carChangeObserver.getCarChanges().clear();
+            Car uno = unitOfWork.execute(() -> {
+                Car inserted = carService.insert(new Car().setModel("Uno").setName("uno").setPrice(1d));
+                carService.update(inserted.setPrice(2d));
+                assertThat(carChangeObserver.getCarChanges()).isEmpty();
+                return inserted;
+            });
+            EntityChangeEvent insert = carChangeObserver.getCarChanges().poll(5, TimeUnit.SECONDS);
+            assertNotNull(insert);
+            assertThat(insert.getOperation()).isEqualTo(ChangeRecord.Operation.INSERT);
+            assertThat(insert.getEntityClass()).isEqualTo(Car.class);
+            assertThat(insert.getId()).isEqualTo(uno.getId());
+            assertThat(insert.getVersion()).isEqualTo(1); //the final flush inserts the car and then updates it
+            try {
+                contextualWork.inNewTransaction(() -> {
+                    carService.delete(carService.findById(-1));
+                    throw new RuntimeException("Rollback");
+                });
+                fail("Work failure should be propagated");
+            } catch (RuntimeException e) {
+                assertEquals("Rollback", e.getMessage());
+            }
+            carService.delete(carService.findById(-2));
+            EntityChangeEvent delete = carChangeObserver.getCarChanges().poll(5, TimeUnit.SECONDS);
+            assertNotNull(delete);
+            assertThat(delete.getOperation()).isEqualTo(ChangeRecord.Operation.DELETE);
+            assertThat(delete.getId()).isEqualTo(-2);
+            assertNull(carChangeObserver.getCarChanges().poll(200, TimeUnit.MILLISECONDS));
+            assertThat(carChangeObserver.getBrandChanges()).isEmpty();
+        } finally {
+            carService.disableChangeEvents();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldNotFireChangeEventsOfTransactionMarkedForRollback() throws InterruptedException {
+        carService.enableChangeEvents();
+        try {
+            carChangeObserver.getCarChanges().clear();
+            contextualWork.inNewTransaction(() -> {
+                carService.delete(carService.findById(-1));
+                transactionRegistry.setRollbackOnly();
+                //the entity manager can't be used anymore, publish a change the way services do
+                changeEventPublisher.publish(Collections.singletonList(new EntityChangeEvent(Car.class, -2, 1, ChangeRecord.Operation.UPDATE)));
+                return null;
+            });
+            assertNull(carChangeObserver.getCarChanges().poll(500, TimeUnit.MILLISECONDS));
+            assertThat(carService.count()).isEqualTo(4);
+        } finally {
+            carService.disableChangeEvents();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldInsertCarsBehindInBatches() throws Exception {
+        long batchesBefore = carService.getMetrics().get(CrudMetrics.WRITE_BEHIND_BATCH);
+        carService.enableWriteBehind(10, 5, Duration.ofMillis(300));
+        try {
+            List<CompletableFuture<Car>> inserts = new ArrayList<>();
+            for (String name : Arrays.asList("uno", "gol", "palio")) {
+                inserts.add(carService.insertBehind(new Car().setModel(name).setName(name).setPrice(1d)).toCompletableFuture());
+            }
+            assertFalse(inserts.stream().anyMatch(CompletableFuture::isDone));
+            CompletableFuture.allOf(inserts.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+            assertThat(inserts).allMatch(insert -> insert.join().getId() != null);
+            assertThat(carService.getMetrics().get(CrudMetrics.WRITE_BEHIND_BATCH)).isEqualTo(batchesBefore + 1);
+            assertThat(carService.count()).isEqualTo(7);
+            CompletableFuture<Car> duplicated = carService.insertBehind(new Car().setModel("Uno").setName("uno").setPrice(1d)).toCompletableFuture();
+            carService.flushWriteBehind().toCompletableFuture().get(5, TimeUnit.SECONDS);
+            try {
+                duplicated.join();
+                fail("Write behind batch should be validated by batch hooks");
+            } catch (CompletionException e) {
+                assertEquals("Car name must be unique", e.getCause().getMessage());
+            }
+            carService.enableWriteBehind(10, 5, Duration.ofMinutes(1));
+            CompletableFuture<Car> fusca = carService.insertBehind(new Car().setModel("Fusca").setName("fusca").setPrice(1d)).toCompletableFuture();
+            carService.disableWriteBehind().toCompletableFuture().get(5, TimeUnit.SECONDS);
+            assertTrue(fusca.isDone());
+            assertThat(carService.count()).isEqualTo(8);
+            try {
+                carService.insertBehind(new Car().setModel("Gol").setName("gol g4").setPrice(1d));
+                fail("Insert behind should fail when write behind is disabled");
+            } catch (IllegalStateException e) {
+                assertThat(e.getMessage()).contains("Write behind is not enabled");
+            }
+        } finally {
+            carService.disableWriteBehind();
+        }
+    }
+
+    @Test
+    @DataSet("cars.yml")
+    public void shouldReadAndWriteCarsInBulkWithoutPersistenceContext() {
+        List<Car> spiders = carService.bulk().list(carService.criteria().likeIgnoreCase(Car_.name, "%spider%"));
+        assertThat(spiders).extracting("id").containsOnly(-1, -2);
+        List<Car> page = carService.bulk().list(new Filter<Car>().setFirst(0).setPageSize(2)
+                .setSortField("model")
+                .setSortType(SortType.DESCENDING));
+        assertThat(page).extracting("model").containsExactly("Porche274", "Porche");
+        List<Integer> streamed = contextualWork.inTransaction(() -> {
+            try (Stream<Car> cars = carService.bulk().stream(carService.criteria().gt(Car_.price, 2000d), 2)) {
+                return cars.map(Car::getId).collect(Collectors.toList());
+            }
+        });
+        assertThat(streamed).containsOnly(-1, -2, -4);
+        try {
+            carService.bulk().stream(carService.criteria(), 2);
+            fail("Streaming outside of a transaction should fail");
+        } catch (javax.persistence.TransactionRequiredException e) {
+            assertThat(e.getMessage()).contains("requires an active transaction");
+        }
+        List<Car> inserted = carService.bulk().insertBatch(Arrays.asList(new Car().setModel("Uno").setName("uno").setPrice(1d),
+                new Car().setModel("Gol").setName("gol").setPrice(2d),
+                new Car().setModel("Palio").setName("palio").setPrice(3d)), 2);
+        assertThat(inserted).allMatch(car -> car.getId() != null);
+        assertThat(inserted).extracting("version").containsOnly(0);
+        assertThat(carService.count()).isEqualTo(7);
+        List<Car> loaded = carService.bulk().list(carService.criteria().in(Car_.id, inserted.stream().map(Car::getId).toArray(Integer[]::new)));
+        loaded.forEach(car -> car.setPrice(car.setPrice() * 10));
+        assertThat(carService.bulk().updateBatch(loaded, 2)).extracting("version").containsOnly(1);
+        carService.getEntityManager().clear();
+        assertThat(carService.findById(inserted.get(2).getId()).setPrice()).isEqualTo(30d);
+        try {
+            carService.bulk().insertBatch(Arrays.asList(new Car().setModel("Fusca").setName("fusca").setPrice(1d),
+                    new Car().setModel("Mustang").setName("mustang spider").setPrice(1d)), 2);
+            fail("Bulk insert should be validated by batch hooks");
+        } catch (RuntimeException e) {
+            assertEquals("Car name must be unique", e.getMessage());
+        }
+        assertThat(carService.count()).isEqualTo(7);
+    }
+
+    private void executeStatement(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
 
     private Car getCar(Integer id) {
         assertEquals(carService.count(carService.criteria().eq(Car_.id, id)), Long.valueOf(1));
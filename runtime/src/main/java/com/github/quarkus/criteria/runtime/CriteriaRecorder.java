@@ -0,0 +1,35 @@
+package com.github.quarkus.criteria.runtime;
+
+import io.quarkus.hibernate.orm.runtime.integration.HibernateOrmIntegrationStaticInitListener;
+import io.quarkus.runtime.annotations.Recorder;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.cfg.AvailableSettings;
+
+import java.util.function.BiConsumer;
+
+@Recorder
+public class CriteriaRecorder {
+
+    /**
+     * Orders inserts and updates by entity on flush so JDBC batches of {@link com.github.quarkus.criteria.runtime.service.UnitOfWork}
+     * and batch operations are not split when entities are written interleaved. Only registered when the build time property
+     * <code>criteria.unit-of-work.order-writes</code> is enabled, it overrides the ordering settings of every persistence unit.
+     */
+    public HibernateOrmIntegrationStaticInitListener createStaticInitListener() {
+        return new OrderedWritesListener();
+    }
+
+    private static class OrderedWritesListener implements HibernateOrmIntegrationStaticInitListener {
+
+        @Override
+        public void contributeBootProperties(BiConsumer<String, Object> propertyCollector) {
+            propertyCollector.accept(AvailableSettings.ORDER_INSERTS, Boolean.TRUE.toString());
+            propertyCollector.accept(AvailableSettings.ORDER_UPDATES, Boolean.TRUE.toString());
+        }
+
+        @Override
+        public void onMetadataInitialized(Metadata metadata, BootstrapContext bootstrapContext, BiConsumer<String, Object> propertyCollector) {
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.quarkus.criteria.runtime.cache;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache invalidations of a transaction, applied again once the transaction completes: until then readers outside of the
+ * transaction still see the committed state and can put it back in the caches.
+ */
+class CacheInvalidations implements Synchronization {
+
+    private final Map<NearCache<?>, Set<Serializable>> evictedIds = new IdentityHashMap<>();
+    private final Set<NegativeCache> clearedNegativeCaches = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @return invalidations of current transaction or <code>null</code> when there is no active transaction
+     */
+    static CacheInvalidations of(TransactionSynchronizationRegistry transactionRegistry) {
+        if (transactionRegistry.getTransactionStatus() != Status.STATUS_ACTIVE) {
+            return null;
+        }
+        CacheInvalidations invalidations = (CacheInvalidations) transactionRegistry.getResource(CacheInvalidations.class);
+        if (invalidations == null) {
+            invalidations = new CacheInvalidations();
+            transactionRegistry.putResource(CacheInvalidations.class, invalidations);
+            transactionRegistry.registerInterposedSynchronization(invalidations);
+        }
+        return invalidations;
+    }
+
+    void evict(NearCache<?> nearCache, Collection<Serializable> ids) {
+        evictedIds.computeIfAbsent(nearCache, cache -> new HashSet<>()).addAll(ids);
+    }
+
+    /**
+     * Inserted records are only visible to other transactions after the commit
+     */
+    void clear(NegativeCache negativeCache) {
+        clearedNegativeCaches.add(negativeCache);
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        evictedIds.forEach((nearCache, ids) -> nearCache.evict(ids));
+        if (status == Status.STATUS_COMMITTED) {
+            clearedNegativeCaches.forEach(NegativeCache::clear);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.quarkus.criteria.runtime.cache;
+
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import com.github.quarkus.criteria.runtime.util.EntityRegistry;
+import org.hibernate.bytecode.spi.BytecodeEnhancementMetadata;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * Near and negative caches of the entities, shared by all services of an entity. Invalidations made in a transaction are
+ * applied again when the transaction completes, see {@link CacheInvalidations}.
+ */
+@ApplicationScoped
+public class EntityCaches {
+
+    @Inject
+    protected TransactionSynchronizationRegistry transactionRegistry;
+
+    private final EntityRegistry<NearCache<?>> nearCaches = new EntityRegistry<>();
+    private final EntityRegistry<NegativeCache> negativeCaches = new EntityRegistry<>();
+
+    /**
+     * Enables (or reconfigures) the near cache of given entity
+     *
+     * @param entityClass         the cached entity
+     * @param maxEntries          max number of snapshots to keep, least recently used entries are discarded first
+     * @param ttl                 how long a snapshot is considered fresh
+     * @param validateVersion     if <code>true</code> every hit is revalidated with a version only query
+     * @param enhancementMetadata the entity bytecode enhancement metadata, used to keep track of lazy attributes
+     * @return the entity near cache
+     */
+    public <T extends PersistenceEntity> NearCache<T> enableNearCache(Class<T> entityClass, int maxEntries, Duration ttl, boolean validateVersion,
+                                                                      BytecodeEnhancementMetadata enhancementMetadata) {
+        final NearCache<T> nearCache = new NearCache<>(entityClass, maxEntries, ttl, validateVersion, enhancementMetadata);
+        nearCaches.register(entityClass, nearCache);
+        return nearCache;
+    }
+
+    public void disableNearCache(Class<?> entityClass) {
+        final NearCache<?> removed = nearCaches.remove(entityClass);
+        if (removed != null) {
+            removed.clear();
+        }
+    }
+
+    /**
+     * @return the near cache of given entity or <code>null</code> if near cache is not enabled for the entity
+     */
+    public <T extends PersistenceEntity> NearCache<T> nearCache(Class<T> entityClass) {
+        return (NearCache<T>) nearCaches.get(entityClass);
+    }
+
+    /**
+     * Enables (or reconfigures) the negative cache of given entity
+     *
+     * @param entityClass the cached entity
+     * @param maxEntries  max number of missing ids to keep
+     * @param ttl         how long an id is considered missing
+     * @return the entity negative cache
+     */
+    public NegativeCache enableNegativeCache(Class<?> entityClass, int maxEntries, Duration ttl) {
+        final NegativeCache negativeCache = new NegativeCache(maxEntries, ttl);
+        negativeCaches.register(entityClass, negativeCache);
+        return negativeCache;
+    }
+
+    public void disableNegativeCache(Class<?> entityClass) {
+        final NegativeCache removed = negativeCaches.remove(entityClass);
+        if (removed != null) {
+            removed.clear();
+        }
+    }
+
+    /**
+     * @return the negative cache of given entity or <code>null</code> if negative cache is not enabled for the entity
+     */
+    public NegativeCache negativeCache(Class<?> entityClass) {
+        return negativeCaches.get(entityClass);
+    }
+
+    /**
+     * Evicts the near cache entries now and again when current transaction completes
+     */
+    public void evict(Class<?> entityClass, Collection<Serializable> ids) {
+        final NearCache<?> nearCache = nearCaches.get(entityClass);
+        if (nearCache != null) {
+            nearCache.evict(ids);
+            evictAfterCompletion(nearCache, ids);
+        }
+    }
+
+    /**
+     * Evicts the near cache entries when current transaction completes, e.g. entries of managed entities which can still
+     * be changed by dirty checking
+     */
+    public void evictAfterCompletion(Class<?> entityClass, Collection<Serializable> ids) {
+        final NearCache<?> nearCache = nearCaches.get(entityClass);
+        if (nearCache != null) {
+            evictAfterCompletion(nearCache, ids);
+        }
+    }
+
+    /**
+     * Clears the negative cache of an entity whose records were inserted, now and again when current transaction commits
+     */
+    public void clearNegativeCache(Class<?> entityClass) {
+        final NegativeCache negativeCache = negativeCaches.get(entityClass);
+        if (negativeCache != null) {
+            negativeCache.clear();
+            final CacheInvalidations invalidations = CacheInvalidations.of(transactionRegistry);
+            if (invalidations != null) {
+                invalidations.clear(negativeCache);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void clear() {
+        nearCaches.clear().forEach(NearCache::clear);
+        negativeCaches.clear().forEach(NegativeCache::clear);
+    }
+
+    private void evictAfterCompletion(NearCache<?> nearCache, Collection<Serializable> ids) {
+        final CacheInvalidations invalidations = CacheInvalidations.of(transactionRegistry);
+        if (invalidations != null) {
+            invalidations.evict(nearCache, ids);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.github.quarkus.criteria.runtime.cache;
+
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import org.hibernate.bytecode.enhance.spi.interceptor.LazyAttributeLoadingInterceptor;
+import org.hibernate.bytecode.spi.BytecodeEnhancementMetadata;
+
+import java.io.*;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Per entity cache of detached snapshots which sits in front of {@link com.github.quarkus.criteria.runtime.service.CrudService#findById(Serializable)}.
+ * <p>
+ * Entities are stored in their serialized form so every lookup hands out its own detached copy, callers can't change the cached state.
+ * Lazy attributes which were not initialized when the snapshot was taken remain unloaded on the copy so merging it back won't override them.
+ * <p>
+ * Every eviction bumps the invalidation generation of the evicted ids. Readers take the {@link NearCache#generation(Serializable)}
+ * of an id before reading the record and {@link NearCache#put(Serializable, PersistenceEntity, Object, long)} rejects the snapshot
+ * when the id was evicted meanwhile, so a state read before a concurrent commit is not cached after the commit evicted it.
+ * Generations are striped by id hash, an eviction can also reject a put of another id of the same stripe.
+ * Caches are managed by {@link EntityCaches}.
+ *
+ * @param <T> the cached entity type
+ */
+public class NearCache<T extends PersistenceEntity> {
+
+    private static final Logger LOG = Logger.getLogger(NearCache.class.getName());
+    private static final int GENERATION_STRIPES = 64;
+
+    private final Class<T> entityClass;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final boolean validateVersion;
+    private final BytecodeEnhancementMetadata enhancementMetadata;
+    private final Map<Serializable, Entry> entries;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    NearCache(Class<T> entityClass, int maxEntries, Duration ttl, boolean validateVersion, BytecodeEnhancementMetadata enhancementMetadata) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Near cache max entries should be greater than zero");
+        }
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Near cache time to live should be positive");
+        }
+        this.entityClass = entityClass;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.validateVersion = validateVersion;
+        this.enhancementMetadata = enhancementMetadata != null && enhancementMetadata.isEnhancedForLazyLoading() ? enhancementMetadata : null;
+        this.entries = new LinkedHashMap<Serializable, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Serializable, Entry> eldest) {
+                return size() > NearCache.this.maxEntries;
+            }
+        };
+    }
+
+    public Entry lookup(Serializable id) {
+        if (id == null) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Entry entry = entries.get(id);
+            if (entry != null && entry.isExpired()) {
+                entries.remove(id);
+                return null;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the invalidation generation of the id, to be taken before the record is read from the database
+     */
+    public long generation(Serializable id) {
+        lock.lock();
+        try {
+            return generations[stripe(id)];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the entity state, entities which can't be serialized are not cached.
+     *
+     * @param generation the generation of the id taken before the entity was read, the snapshot is discarded when the id was
+     *                   evicted since then
+     */
+    public void put(Serializable id, T entity, Object version, long generation) {
+        if (id == null || entity == null) {
+            return;
+        }
+        final byte[] snapshot;
+        try {
+            snapshot = serialize(entity);
+        } catch (IOException e) {
+            LOG.fine(format("Entity %s with id %s will not be cached: %s", entityClass.getName(), id, e.getMessage()));
+            return;
+        }
+        Set<String> initializedLazyAttributes = null;
+        if (enhancementMetadata != null) {
+            LazyAttributeLoadingInterceptor interceptor = enhancementMetadata.extractInterceptor(entity);
+            initializedLazyAttributes = interceptor != null ? new HashSet<>(interceptor.getInitializedLazyAttributeNames()) : null;
+        }
+        Entry entry = new Entry(id, snapshot, version, initializedLazyAttributes, System.currentTimeMillis() + ttlMillis);
+        lock.lock();
+        try {
+            if (generations[stripe(id)] != generation) {
+                LOG.fine(format("Entity %s with id %s was evicted while it was read, it will not be cached.", entityClass.getName(), id));
+                return;
+            }
+            entries.put(id, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void evict(Serializable id) {
+        if (id == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            generations[stripe(id)]++;
+            entries.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void evict(Collection<? extends Serializable> ids) {
+        lock.lock();
+        try {
+            ids.forEach(id -> generations[stripe(id)]++);
+            entries.keySet().removeAll(ids);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            for (int i = 0; i < generations.length; i++) {
+                generations[i]++;
+            }
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isValidateVersion() {
+        return validateVersion;
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    private static int stripe(Serializable id) {
+        return (id.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    private static byte[] serialize(Object entity) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(entity);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A cached snapshot of an entity
+     */
+    public class Entry {
+
+        private final Serializable id;
+        private final byte[] snapshot;
+        private final Object version;
+        private final Set<String> initializedLazyAttributes;
+        private final long expiresAt;
+
+        Entry(Serializable id, byte[] snapshot, Object version, Set<String> initializedLazyAttributes, long expiresAt) {
+            this.id = id;
+            this.snapshot = snapshot;
+            this.version = version;
+            this.initializedLazyAttributes = initializedLazyAttributes;
+            this.expiresAt = expiresAt;
+        }
+
+        public Object getVersion() {
+            return version;
+        }
+
+        /**
+         * @return a new detached copy of the cached entity
+         */
+        public T copy() {
+            T copy = deserialize();
+            if (initializedLazyAttributes != null) {
+                //the interceptor is transient so we need to tell hibernate which lazy attributes were not loaded
+                LazyAttributeLoadingInterceptor interceptor = enhancementMetadata.injectInterceptor(copy, id, null);
+                initializedLazyAttributes.forEach(interceptor::attributeInitialized);
+            }
+            return copy;
+        }
+
+        private T deserialize() {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(snapshot)) {
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                    try {
+                        return Class.forName(desc.getName(), false, Thread.currentThread().getContextClassLoader());
+                    } catch (ClassNotFoundException e) {
+                        return super.resolveClass(desc);
+                    }
+                }
+            }) {
+                return (T) in.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RuntimeException("Could not read entity snapshot from near cache.", e);
+            }
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.quarkus.criteria.runtime.cache;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Short lived per entity cache of ids which were not found by {@link com.github.quarkus.criteria.runtime.service.CrudService#findById(Serializable)}.
+ * <p>
+ * The whole cache of an entity is cleared when a new record of the entity is inserted through a CrudService.
+ * Caches are managed by {@link EntityCaches}.
+ */
+public class NegativeCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<Serializable, Long> missingIds;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    NegativeCache(int maxEntries, Duration ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Negative cache max entries should be greater than zero");
+        }
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Negative cache time to live should be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.missingIds = new LinkedHashMap<Serializable, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Serializable, Long> eldest) {
+                return size() > NegativeCache.this.maxEntries;
+            }
+        };
+    }
+
+    public boolean isMissing(Serializable id) {
+        if (id == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            Long expiresAt = missingIds.get(id);
+            if (expiresAt == null) {
+                return false;
+            }
+            if (System.currentTimeMillis() > expiresAt) {
+                missingIds.remove(id);
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remembers the missing id, expired ids are discarded first and the oldest ones when the cache is still full.
+     */
+    public void put(Serializable id) {
+        if (id == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            removeExpired(now);
+            missingIds.remove(id); //keeps insertion order equal to expiration order
+            missingIds.put(id, now + ttlMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            missingIds.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return missingIds.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeExpired(long now) {
+        final Iterator<Long> expirations = missingIds.values().iterator();
+        while (expirations.hasNext() && now > expirations.next()) {
+            expirations.remove();
+        }
+    }
+}
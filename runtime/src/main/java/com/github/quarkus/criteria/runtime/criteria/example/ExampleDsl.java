@@ -2,11 +2,13 @@ package com.github.quarkus.criteria.runtime.criteria.example;
 
 import com.github.quarkus.criteria.runtime.model.ComparisonOperation;
 import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import com.github.quarkus.criteria.runtime.model.QueryOptions;
 import org.apache.deltaspike.data.api.criteria.Criteria;
 import org.apache.deltaspike.data.impl.criteria.QueryCriteria;
 import org.jboss.logmanager.Level;
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.JoinType;
 import javax.persistence.metamodel.*;
 import java.io.Serializable;
@@ -93,6 +95,15 @@ public class ExampleDsl<T extends PersistenceEntity> {
         return criteria;
     }
 
+    /**
+     * @param queryOptions lock mode and hints of the query, can be <code>null</code>
+     * @return A query created from the example criteria with given options applied
+     */
+    public TypedQuery<T> createQuery(QueryOptions queryOptions) {
+        final TypedQuery<T> query = build().createQuery();
+        return queryOptions != null ? queryOptions.applyTo(query) : query;
+    }
+
     private ExampleDsl addRestrictions(ComparisonOperation comparisonOperation, Attribute<T, ?>[] usingAttributes) {
         if (usingAttributes == null || usingAttributes.length == 0) {
             usingAttributes = exampleAttributes.toArray(new Attribute[0]);
@@ -2,9 +2,11 @@ package com.github.quarkus.criteria.runtime.criteria.example;
 
 import com.github.quarkus.criteria.runtime.model.ComparisonOperation;
 import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import com.github.quarkus.criteria.runtime.model.QueryOptions;
 import org.apache.deltaspike.data.api.criteria.Criteria;
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import javax.persistence.metamodel.Attribute;
 
 /**
@@ -26,6 +28,14 @@ public class WithCriteriaDsl<T extends PersistenceEntity> {
         return exampleDsl.build();
     }
 
+    /**
+     * @param queryOptions lock mode and hints of the query, can be <code>null</code>
+     * @return A query created from the example criteria with given options applied
+     */
+    public TypedQuery<T> createQuery(QueryOptions queryOptions) {
+        return exampleDsl.createQuery(queryOptions);
+    }
+
     /**
      * Add example restrictions to existing criteria
      *
@@ -0,0 +1,101 @@
+package com.github.quarkus.criteria.runtime.event;
+
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
+import org.jboss.logmanager.Level;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Fires {@link EntityChangeEvent}s asynchronously (<code>@ObservesAsync</code>) once the transaction which made the changes commits.
+ * Events of a transaction are kept in the transaction and coalesced per record, so observers get at most one event per record
+ * and transaction: an insert followed by updates is an insert with the last version, an insert followed by a delete fires nothing,
+ * otherwise the last change wins. Nothing is fired when the transaction rolls back.
+ */
+@ApplicationScoped
+public class ChangeEventPublisher {
+
+    private static final Logger LOG = Logger.getLogger(ChangeEventPublisher.class.getName());
+    private static final Object PENDING_EVENTS_KEY = new Object();
+
+    @Inject
+    protected Event<EntityChangeEvent> events;
+
+    @Inject
+    protected TransactionSynchronizationRegistry transactionRegistry;
+
+    /**
+     * Publishes the events after current transaction commits, or right away when there is no transaction. Events of a
+     * transaction which is marked for rollback, or already completing, are dropped.
+     */
+    public void publish(Collection<EntityChangeEvent> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        final int status = transactionRegistry.getTransactionStatus();
+        if (status == Status.STATUS_NO_TRANSACTION) {
+            changes.forEach(this::fire);
+            return;
+        }
+        if (status != Status.STATUS_ACTIVE) {
+            LOG.log(Level.DEBUG, format("Dropping %d change events of transaction with status %d.", changes.size(), status));
+            return;
+        }
+        Map<List<Object>, EntityChangeEvent> pending = (Map<List<Object>, EntityChangeEvent>) transactionRegistry.getResource(PENDING_EVENTS_KEY);
+        if (pending == null) {
+            final Map<List<Object>, EntityChangeEvent> transactionEvents = new LinkedHashMap<>();
+            transactionRegistry.putResource(PENDING_EVENTS_KEY, transactionEvents);
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        new ArrayList<>(transactionEvents.values()).forEach(ChangeEventPublisher.this::fire);
+                    }
+                }
+            });
+            pending = transactionEvents;
+        }
+        for (EntityChangeEvent change : changes) {
+            coalesce(pending, change);
+        }
+    }
+
+    private static void coalesce(Map<List<Object>, EntityChangeEvent> pending, EntityChangeEvent change) {
+        final List<Object> key = Arrays.asList(change.getEntityClass(), change.getId());
+        final EntityChangeEvent previous = pending.remove(key);
+        if (previous == null || previous.getOperation() != ChangeRecord.Operation.INSERT) {
+            pending.put(key, change);
+        } else if (change.getOperation() == ChangeRecord.Operation.UPDATE) {
+            pending.put(key, new EntityChangeEvent(change.getEntityClass(), change.getId(), change.getVersion(), ChangeRecord.Operation.INSERT));
+        } else if (change.getOperation() != ChangeRecord.Operation.DELETE) {
+            pending.put(key, change);
+        }
+    }
+
+    private void fire(EntityChangeEvent change) {
+        events.select(new ChangedEntity.Literal(change.getEntityClass()))
+                .fireAsync(change)
+                .whenComplete((event, failure) -> {
+                    if (failure != null) {
+                        LOG.log(Level.WARNING, format("Observer of change event %s failed.", change), failure);
+                    }
+                });
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.quarkus.criteria.runtime.event;
+
+import javax.enterprise.util.AnnotationLiteral;
+import javax.inject.Qualifier;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Qualifies {@link EntityChangeEvent}s by the changed entity, e.g: <code>void onCarChange(@ObservesAsync @ChangedEntity(Car.class) EntityChangeEvent event)</code>.
+ * Observers without the qualifier receive the events of all entities.
+ */
+@Qualifier
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.PARAMETER, ElementType.FIELD, ElementType.METHOD, ElementType.TYPE})
+public @interface ChangedEntity {
+
+    Class<?> value();
+
+    final class Literal extends AnnotationLiteral<ChangedEntity> implements ChangedEntity {
+
+        private final Class<?> value;
+
+        public Literal(Class<?> value) {
+            this.value = value;
+        }
+
+        @Override
+        public Class<?> value() {
+            return value;
+        }
+    }
+}
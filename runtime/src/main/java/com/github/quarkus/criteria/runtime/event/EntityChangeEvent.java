@@ -0,0 +1,48 @@
+package com.github.quarkus.criteria.runtime.event;
+
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
+
+import java.io.Serializable;
+
+/**
+ * Change of an entity record, fired asynchronously after the transaction which made the change commits.
+ * Changes of the same record in a transaction are coalesced in a single event.
+ */
+public class EntityChangeEvent implements Serializable {
+
+    private final Class<?> entityClass;
+    private final Serializable id;
+    private final Object version;
+    private final ChangeRecord.Operation operation;
+
+    public EntityChangeEvent(Class<?> entityClass, Serializable id, Object version, ChangeRecord.Operation operation) {
+        this.entityClass = entityClass;
+        this.id = id;
+        this.version = version;
+        this.operation = operation;
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public Serializable getId() {
+        return id;
+    }
+
+    /**
+     * @return the record version after the change, <code>null</code> when the entity is not versioned or the version is unknown
+     */
+    public Object getVersion() {
+        return version;
+    }
+
+    public ChangeRecord.Operation getOperation() {
+        return operation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s (version %s)", operation, entityClass.getName(), id, version);
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.quarkus.criteria.runtime.jdbc;
+
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.CustomType;
+
+import javax.persistence.EntityManager;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Native <code>id = ANY(?)</code> statements which bind all primary keys as a single PostgreSQL array parameter,
+ * the SQL text is the same whatever the number of ids so the statement can be parsed and planned once.
+ *
+ * @param <T> the entity type
+ */
+public class IdArrayParameter<T> {
+
+    private static final Map<Class<?>, String> ELEMENT_TYPES = new HashMap<>();
+
+    static {
+        ELEMENT_TYPES.put(Short.class, "int2");
+        ELEMENT_TYPES.put(Integer.class, "int4");
+        ELEMENT_TYPES.put(Long.class, "int8");
+        ELEMENT_TYPES.put(String.class, "varchar");
+        ELEMENT_TYPES.put(UUID.class, "uuid");
+    }
+
+    private final Class<T> entityClass;
+    private final String tableName;
+    private final String idColumn;
+    private final CustomType arrayType;
+
+    private IdArrayParameter(Class<T> entityClass, String tableName, String idColumn, String elementTypeName) {
+        this.entityClass = entityClass;
+        this.tableName = tableName;
+        this.idColumn = idColumn;
+        this.arrayType = new CustomType(new SqlArrayType(elementTypeName));
+    }
+
+    /**
+     * @return array parameter statements of given entity or <code>null</code> if the database or the entity mapping is not supported
+     */
+    public static <T> IdArrayParameter<T> of(EntityManager entityManager, Class<T> entityClass) {
+        final SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        if (!(sessionFactory.getJdbcServices().getDialect() instanceof PostgreSQL81Dialect)) {
+            return null;
+        }
+        final EntityPersister persister = sessionFactory.getMetamodel().entityPersister(entityClass);
+        if (!(persister instanceof SingleTableEntityPersister)) {
+            return null;
+        }
+        final SingleTableEntityPersister tablePersister = (SingleTableEntityPersister) persister;
+        final String elementTypeName = ELEMENT_TYPES.get(persister.getIdentifierType().getReturnedClass());
+        if (elementTypeName == null || tablePersister.getIdentifierColumnNames().length != 1) {
+            return null;
+        }
+        return new IdArrayParameter<>(entityClass, tablePersister.getTableName(), tablePersister.getIdentifierColumnNames()[0], elementTypeName);
+    }
+
+    public List<T> select(EntityManager entityManager, Collection<? extends Serializable> ids) {
+        NativeQuery<T> query = entityManager.createNativeQuery("select * from " + tableName + " where " + idColumn + " = any(:ids)", entityClass)
+                .unwrap(NativeQuery.class);
+        return query.addSynchronizedEntityClass(entityClass)
+                .setParameter("ids", ids.toArray(), arrayType)
+                .getResultList();
+    }
+
+    public int delete(EntityManager entityManager, Collection<? extends Serializable> ids) {
+        NativeQuery<?> query = entityManager.createNativeQuery("delete from " + tableName + " where " + idColumn + " = any(:ids)")
+                .unwrap(NativeQuery.class);
+        return query.addSynchronizedEntityClass(entityClass)
+                .setParameter("ids", ids.toArray(), arrayType)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.quarkus.criteria.runtime.jdbc;
+
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.spi.id.AbstractMultiTableBulkIdStrategyImpl;
+import org.hibernate.hql.spi.id.IdTableSupport;
+import org.hibernate.hql.spi.id.MultiTableBulkIdStrategy;
+import org.hibernate.hql.spi.id.local.LocalTemporaryTableBulkIdStrategy;
+import org.hibernate.mapping.Column;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.query.NativeQuery;
+
+import javax.persistence.EntityManager;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Id only native statements (select and delete by primary key) which join an entity table with a temporary table of primary keys.
+ * The ids are loaded with JDBC batches into a temporary table, it is meant for id sets too big to be sent as <code>IN</code> lists.
+ * No other restriction can be applied and the delete is a plain SQL delete: it bypasses entity callbacks and cascades.
+ * <p>
+ * The temporary table has a fixed name per entity (<code>tmp_ids_&lt;entity table&gt;</code>). On databases which drop it at
+ * commit it is created once per session and emptied before being reused, otherwise it is created and dropped by each call.
+ * Temporary table DDL comes from the dialect bulk id strategy so only databases supporting local temporary tables are supported.
+ *
+ * @param <T> the entity type
+ */
+public class IdTempTable<T> {
+
+    private static final Logger LOG = Logger.getLogger(IdTempTable.class.getName());
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private final Class<T> entityClass;
+    private final String tableName;
+    private final String idTable;
+    private final String idColumn;
+    private final String idColumnType;
+    private final IdTableSupport idTableSupport;
+
+    private IdTempTable(Class<T> entityClass, String tableName, String idColumn, String idColumnType, IdTableSupport idTableSupport) {
+        this.entityClass = entityClass;
+        this.tableName = tableName;
+        this.idTable = idTableSupport.generateIdTableName("tmp_ids_" + tableName.substring(tableName.lastIndexOf('.') + 1));
+        this.idColumn = idColumn;
+        this.idColumnType = idColumnType;
+        this.idTableSupport = idTableSupport;
+    }
+
+    /**
+     * @return temporary table statements of given entity or <code>null</code> if the database or the entity mapping is not supported
+     */
+    public static <T> IdTempTable<T> of(EntityManager entityManager, Class<T> entityClass) {
+        final SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        final Dialect dialect = sessionFactory.getJdbcServices().getDialect();
+        final MultiTableBulkIdStrategy bulkIdStrategy = dialect.getDefaultMultiTableBulkIdStrategy();
+        if (!(bulkIdStrategy instanceof LocalTemporaryTableBulkIdStrategy)) {
+            return null;
+        }
+        final EntityPersister persister = sessionFactory.getMetamodel().entityPersister(entityClass);
+        if (!(persister instanceof SingleTableEntityPersister)) {
+            return null;
+        }
+        final SingleTableEntityPersister tablePersister = (SingleTableEntityPersister) persister;
+        final int[] idSqlTypes = persister.getIdentifierType().sqlTypes(sessionFactory);
+        if (idSqlTypes.length != 1) {
+            return null;
+        }
+        final String idColumnType = dialect.getTypeName(idSqlTypes[0], Column.DEFAULT_LENGTH, Column.DEFAULT_PRECISION, Column.DEFAULT_SCALE);
+        return new IdTempTable<>(entityClass, tablePersister.getTableName(), tablePersister.getIdentifierColumnNames()[0], idColumnType,
+                ((AbstractMultiTableBulkIdStrategyImpl<?, ?>) bulkIdStrategy).getIdTableSupport());
+    }
+
+    /**
+     * @return managed entities whose primary key is one of the ids
+     */
+    public List<T> select(EntityManager entityManager, Collection<? extends Serializable> ids) {
+        return withIds(entityManager, ids, idTable -> {
+            NativeQuery<T> query = entityManager.createNativeQuery(format("select e.* from %s e join %s t on e.%s = t.id", tableName, idTable, idColumn), entityClass)
+                    .unwrap(NativeQuery.class);
+            return query.addSynchronizedEntityClass(entityClass).getResultList();
+        });
+    }
+
+    /**
+     * Deletes the rows whose primary key is one of the ids with a native statement
+     *
+     * @return number of deleted rows
+     */
+    public int delete(EntityManager entityManager, Collection<? extends Serializable> ids) {
+        return withIds(entityManager, ids, idTable -> {
+            NativeQuery<?> query = entityManager.createNativeQuery(format("delete from %s where %s in (select id from %s)", tableName, idColumn, idTable))
+                    .unwrap(NativeQuery.class);
+            return query.addSynchronizedEntityClass(entityClass).executeUpdate();
+        });
+    }
+
+    /**
+     * Loads the ids into the temporary table and runs the work. Must be called in a transaction.
+     */
+    private <R> R withIds(EntityManager entityManager, Collection<? extends Serializable> ids, Function<String, R> work) {
+        final Session session = entityManager.unwrap(Session.class);
+        final String createOptions = idTableSupport.getCreateIdTableStatementOptions();
+        final boolean droppedOnCommit = createOptions != null && createOptions.toLowerCase().contains("on commit drop");
+        //the session lives as long as the transaction, so it tells whether the table was already created in the transaction
+        final String createdProperty = IdTempTable.class.getName() + "." + idTable;
+        final boolean created = droppedOnCommit && session.getProperties().containsKey(createdProperty);
+        session.doWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                if (created) {
+                    statement.executeUpdate("delete from " + idTable);
+                } else {
+                    statement.executeUpdate(format("%s %s (id %s not null)%s", idTableSupport.getCreateIdTableCommand(), idTable, idColumnType,
+                            createOptions != null ? " " + createOptions : ""));
+                }
+            }
+            try (PreparedStatement insert = connection.prepareStatement(format("insert into %s (id) values (?)", idTable))) {
+                int pending = 0;
+                for (Serializable id : ids) {
+                    insert.setObject(1, id);
+                    insert.addBatch();
+                    if (++pending == INSERT_BATCH_SIZE) {
+                        insert.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    insert.executeBatch();
+                }
+            }
+        });
+        if (droppedOnCommit) {
+            session.setProperty(createdProperty, Boolean.TRUE);
+        }
+        LOG.fine(format("Loaded %d ids of entity %s into temporary table %s.", ids.size(), entityClass.getName(), idTable));
+        try {
+            return work.apply(idTable);
+        } finally {
+            //tables created with 'on commit drop' go away with the transaction, dropping them explicitly would commit on some databases
+            if (!droppedOnCommit) {
+                session.doWork(connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate(idTableSupport.getDropIdTableCommand() + " " + idTable);
+                    }
+                });
+            }
+        }
+    }
+}
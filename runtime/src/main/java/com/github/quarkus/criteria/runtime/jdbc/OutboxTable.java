@@ -0,0 +1,142 @@
+package com.github.quarkus.criteria.runtime.jdbc;
+
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Table of {@link ChangeRecord}s written by {@link com.github.quarkus.criteria.runtime.service.CrudService} operations in the
+ * same transaction as the changes, and read by {@link com.github.quarkus.criteria.runtime.service.OutboxRelay}.
+ * Records are appended with JDBC batches and removed once acknowledged.
+ */
+public class OutboxTable {
+
+    public static final String DEFAULT_TABLE_NAME = "crud_outbox";
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private final String tableName;
+
+    private OutboxTable(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * An outbox used to append records. The table is never created, it is part of the application schema.
+     *
+     * @throws RuntimeException when the outbox table doesn't exist
+     */
+    public static OutboxTable verified(EntityManager entityManager, String tableName) {
+        final OutboxTable outbox = new OutboxTable(tableName);
+        outbox.verifyExists(entityManager);
+        return outbox;
+    }
+
+    /**
+     * An outbox which is only used to read and acknowledge records, it must already exist
+     */
+    public static OutboxTable named(String tableName) {
+        return new OutboxTable(tableName);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Appends the records using JDBC batches in current transaction
+     */
+    public void append(EntityManager entityManager, Collection<ChangeRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        final Timestamp now = Timestamp.from(Instant.now());
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement insert = connection.prepareStatement(format(
+                    "insert into %s (entity, entity_id, version, operation, attributes, created_at) values (?, ?, ?, ?, ?, ?)", tableName))) {
+                int pending = 0;
+                for (ChangeRecord record : records) {
+                    insert.setString(1, record.getEntity());
+                    insert.setString(2, record.getEntityId());
+                    insert.setString(3, record.getVersion());
+                    insert.setString(4, record.getOperation().name());
+                    insert.setString(5, record.getAttributes().isEmpty() ? null : String.join(",", record.getAttributes()));
+                    insert.setTimestamp(6, now);
+                    insert.addBatch();
+                    if (++pending == INSERT_BATCH_SIZE) {
+                        insert.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    insert.executeBatch();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the records of the outbox by ascending sequence. Sequences are assigned at insert time, so records of concurrent
+     * transactions may be read in an order different from their commit order
+     */
+    public List<ChangeRecord> read(EntityManager entityManager, int max) {
+        final List<Object[]> rows = entityManager.createNativeQuery(format(
+                "select id, entity, entity_id, version, operation, attributes, created_at from %s order by id", tableName))
+                .setMaxResults(max)
+                .getResultList();
+        final List<ChangeRecord> records = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            final String attributes = (String) row[5];
+            records.add(new ChangeRecord(((Number) row[0]).longValue(), (String) row[1], (String) row[2], (String) row[3],
+                    ChangeRecord.Operation.valueOf((String) row[4]),
+                    attributes != null ? Arrays.asList(attributes.split(",")) : null,
+                    ((Timestamp) row[6]).toInstant()));
+        }
+        return records;
+    }
+
+    /**
+     * Removes the records from the outbox
+     *
+     * @return number of removed records
+     */
+    public int acknowledge(EntityManager entityManager, Collection<ChangeRecord> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        return entityManager.createNativeQuery(format("delete from %s where id in (:ids)", tableName))
+                .setParameter("ids", records.stream().map(ChangeRecord::getSequence).collect(Collectors.toList()))
+                .executeUpdate();
+    }
+
+    private void verifyExists(EntityManager entityManager) {
+        final boolean exists = entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            for (String name : Arrays.asList(tableName, tableName.toUpperCase(), tableName.toLowerCase())) {
+                try (ResultSet tables = metaData.getTables(null, null, name, null)) {
+                    if (tables.next()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+        if (!exists) {
+            throw new RuntimeException(format("Outbox table %s doesn't exist, create it with the DDL of the 'Change outbox' section of the README "
+                    + "before enabling the outbox.", tableName));
+        }
+    }
+}
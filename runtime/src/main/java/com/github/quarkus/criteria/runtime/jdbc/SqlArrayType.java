@@ -0,0 +1,95 @@
+package com.github.quarkus.criteria.runtime.jdbc;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.usertype.UserType;
+
+import java.io.Serializable;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Maps a java array to a single <code>java.sql.Array</code> value, e.g. the parameter of <code>id = ANY(?)</code> statements
+ */
+public class SqlArrayType implements UserType {
+
+    private final String elementTypeName;
+
+    /**
+     * @param elementTypeName database type name of array elements, e.g <code>int8</code>
+     */
+    public SqlArrayType(String elementTypeName) {
+        this.elementTypeName = elementTypeName;
+    }
+
+    @Override
+    public int[] sqlTypes() {
+        return new int[]{Types.ARRAY};
+    }
+
+    @Override
+    public Class returnedClass() {
+        return Object[].class;
+    }
+
+    @Override
+    public boolean equals(Object x, Object y) throws HibernateException {
+        return Arrays.equals((Object[]) x, (Object[]) y);
+    }
+
+    @Override
+    public int hashCode(Object x) throws HibernateException {
+        return Arrays.hashCode((Object[]) x);
+    }
+
+    @Override
+    public Object nullSafeGet(ResultSet rs, String[] names, SharedSessionContractImplementor session, Object owner) throws HibernateException, SQLException {
+        final Array array = rs.getArray(names[0]);
+        if (array == null) {
+            return null;
+        }
+        try {
+            return array.getArray();
+        } finally {
+            array.free();
+        }
+    }
+
+    @Override
+    public void nullSafeSet(PreparedStatement st, Object value, int index, SharedSessionContractImplementor session) throws HibernateException, SQLException {
+        if (value == null) {
+            st.setNull(index, Types.ARRAY);
+        } else {
+            st.setArray(index, st.getConnection().createArrayOf(elementTypeName, (Object[]) value));
+        }
+    }
+
+    @Override
+    public Object deepCopy(Object value) throws HibernateException {
+        return value;
+    }
+
+    @Override
+    public boolean isMutable() {
+        return false;
+    }
+
+    @Override
+    public Serializable disassemble(Object value) throws HibernateException {
+        return (Serializable) value;
+    }
+
+    @Override
+    public Object assemble(Serializable cached, Object owner) throws HibernateException {
+        return cached;
+    }
+
+    @Override
+    public Object replace(Object original, Object target, Object owner) throws HibernateException {
+        return original;
+    }
+}
@@ -0,0 +1,366 @@
+package com.github.quarkus.criteria.runtime.jdbc;
+
+import org.hibernate.Session;
+import org.hibernate.bytecode.enhance.spi.LazyPropertyInitializer;
+import org.hibernate.dialect.DB2Dialect;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.PostgreSQL95Dialect;
+import org.hibernate.dialect.SQLServerDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PostInsertIdentifierGenerator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.type.Type;
+import org.hibernate.type.VersionType;
+
+import javax.persistence.EntityManager;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Native insert-or-update statement of an entity generated from its mapping: <code>INSERT ... ON CONFLICT DO UPDATE</code>
+ * on PostgreSQL, <code>INSERT ... ON DUPLICATE KEY UPDATE</code> on MySQL, <code>MERGE ... KEY</code> on H2 and <code>MERGE</code> on the other databases.
+ * Rows are matched by the conflict target columns, the primary key by default, so every entity costs one statement without a read first.
+ * <p>
+ * Only entities mapped to a single table without inheritance are supported. Collections and non insertable attributes are not written,
+ * when the entity is versioned its version is seeded on insert and incremented on update.
+ * <p>
+ * The version is never compared: an upsert overwrites the matched row even when it was changed concurrently, so optimistic locking
+ * is bypassed. On MySQL rows are matched by any unique key, so only the primary key is accepted as conflict target.
+ *
+ * @param <T> the entity type
+ */
+public class UpsertStatement<T> {
+
+    private static final Logger LOG = Logger.getLogger(UpsertStatement.class.getName());
+    private static final int BATCH_SIZE = 1000;
+
+    private final Class<T> entityClass;
+    private final SingleTableEntityPersister persister;
+    private final List<Integer> properties;
+    private final List<String> conflictColumns;
+    private final boolean conflictOnId;
+    private final Sql withId;
+    private final Sql withoutId;
+
+    private UpsertStatement(Class<T> entityClass, SingleTableEntityPersister persister, Dialect dialect, List<String> conflictColumns, boolean conflictOnId) {
+        this.entityClass = entityClass;
+        this.persister = persister;
+        this.conflictColumns = conflictColumns;
+        this.conflictOnId = conflictOnId;
+        this.properties = new ArrayList<>();
+        final boolean[] insertable = persister.getPropertyInsertability();
+        final Type[] types = persister.getPropertyTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (insertable[i] && !types[i].isCollectionType() && persister.getPropertyColumnNames(i).length > 0) {
+                properties.add(i);
+            }
+        }
+        this.withId = createStatement(dialect, true);
+        this.withoutId = conflictOnId ? null : createStatement(dialect, false);
+    }
+
+    /**
+     * @param conflictAttributes attributes matching existing rows, they must be covered by an unique constraint. When empty the primary key is used.
+     * @return upsert statement of given entity or <code>null</code> if the database or the entity mapping is not supported
+     * @throws IllegalArgumentException if a conflict target other than the primary key is given on MySQL
+     */
+    public static <T> UpsertStatement<T> of(EntityManager entityManager, Class<T> entityClass, String... conflictAttributes) {
+        final SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        final Dialect dialect = sessionFactory.getJdbcServices().getDialect();
+        if (dialect instanceof PostgreSQL81Dialect && !(dialect instanceof PostgreSQL95Dialect)) {
+            return null; //ON CONFLICT is available since PostgreSQL 9.5
+        }
+        final EntityPersister persister = sessionFactory.getMetamodel().entityPersister(entityClass);
+        if (!(persister instanceof SingleTableEntityPersister) || persister.isInherited() || persister.getEntityMetamodel().hasSubclasses()) {
+            return null;
+        }
+        final SingleTableEntityPersister tablePersister = (SingleTableEntityPersister) persister;
+        final List<String> conflictColumns = new ArrayList<>();
+        if (conflictAttributes == null || conflictAttributes.length == 0) {
+            conflictColumns.addAll(Arrays.asList(tablePersister.getIdentifierColumnNames()));
+        } else {
+            for (String attribute : conflictAttributes) {
+                conflictColumns.addAll(Arrays.asList(tablePersister.getPropertyColumnNames(attribute)));
+            }
+        }
+        final boolean conflictOnId = conflictColumns.equals(Arrays.asList(tablePersister.getIdentifierColumnNames()));
+        if (dialect instanceof MySQLDialect && !conflictOnId) {
+            throw new IllegalArgumentException(format("MySQL matches upserts of entity %s by any unique key, a conflict target can't be chosen.",
+                    entityClass.getName()));
+        }
+        return new UpsertStatement<>(entityClass, tablePersister, dialect, conflictColumns, conflictOnId);
+    }
+
+    /**
+     * Writes the entities with JDBC batches. Entities are not attached to the persistence context and, as the row may already exist,
+     * ids generated for entities without one are not set back. Must be called in a transaction.
+     *
+     * @return number of inserted or updated rows
+     */
+    public int execute(EntityManager entityManager, Collection<T> entities) {
+        final SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        final IdentifierGenerator idGenerator = persister.getIdentifierGenerator();
+        final List<Object[]> rowsWithId = new ArrayList<>();
+        final List<Object[]> rowsWithoutId = new ArrayList<>();
+        for (T entity : entities) {
+            Serializable id = persister.getIdentifier(entity, session);
+            if (id == null) {
+                if (conflictOnId) {
+                    throw new RuntimeException(format("Record of entity %s needs an id to be upserted by primary key.", entityClass.getName()));
+                }
+                if (!(idGenerator instanceof PostInsertIdentifierGenerator)) {
+                    id = idGenerator.generate(session, entity);
+                }
+            }
+            final Object[] row = rowOf(entity, id, session);
+            if (id == null) {
+                rowsWithoutId.add(row);
+            } else {
+                rowsWithId.add(row);
+            }
+        }
+        final int[] rows = new int[1];
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            if (!rowsWithId.isEmpty()) {
+                rows[0] += executeBatches(connection.prepareStatement(withId.sql), withId, rowsWithId, session);
+            }
+            if (!rowsWithoutId.isEmpty()) {
+                rows[0] += executeBatches(connection.prepareStatement(withoutId.sql), withoutId, rowsWithoutId, session);
+            }
+        });
+        LOG.fine(format("Upserted %d records of entity %s.", entities.size(), entityClass.getName()));
+        return rows[0];
+    }
+
+    private Object[] rowOf(T entity, Serializable id, SharedSessionContractImplementor session) {
+        final Object[] row = new Object[properties.size() + 1];
+        row[0] = id;
+        for (int i = 0; i < properties.size(); i++) {
+            final int property = properties.get(i);
+            Object value = persister.getPropertyValue(entity, property);
+            if (value == LazyPropertyInitializer.UNFETCHED_PROPERTY) {
+                throw new RuntimeException(format("Lazy attribute %s of entity %s must be initialized to be upserted.",
+                        persister.getPropertyNames()[property], entityClass.getName()));
+            }
+            if (value == null && property == persister.getVersionProperty()) {
+                value = ((VersionType<?>) persister.getVersionType()).seed(session);
+            }
+            row[i + 1] = value;
+        }
+        return row;
+    }
+
+    private int executeBatches(PreparedStatement statement, Sql sql, List<Object[]> rows, SharedSessionContractImplementor session) throws SQLException {
+        int count = 0;
+        try (PreparedStatement upsert = statement) {
+            int pending = 0;
+            for (Object[] row : rows) {
+                int index = 1;
+                for (Parameter parameter : sql.parameters) {
+                    parameter.type.nullSafeSet(upsert, row[parameter.slot], index, parameter.settable, session);
+                    index += parameter.columns.size();
+                }
+                upsert.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    count += countRows(upsert.executeBatch());
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                count += countRows(upsert.executeBatch());
+            }
+        }
+        return count;
+    }
+
+    private static int countRows(int[] results) {
+        int count = 0;
+        for (int result : results) {
+            //mysql reports 2 for updated rows and some drivers don't report counts of batched statements at all
+            count += result == Statement.SUCCESS_NO_INFO || result > 1 ? 1 : result;
+        }
+        return count;
+    }
+
+    private Sql createStatement(Dialect dialect, boolean includeId) {
+        final String table = persister.getTableName();
+        final boolean[] updatable = persister.getPropertyUpdateability();
+        final int versionProperty = persister.getVersionProperty();
+        final List<Parameter> insert = parameters(includeId, property -> true, column -> true);
+        final List<Parameter> update = parameters(false, property -> updatable[property] && property != versionProperty,
+                column -> !conflictColumns.contains(column));
+        final List<String> columns = columnsOf(insert);
+        final List<String> updateColumns = columnsOf(update);
+        final String versionColumn = persister.isVersioned() ? persister.getVersionColumnName() : null;
+        final boolean incrementVersion = versionColumn != null && Number.class.isAssignableFrom(persister.getVersionType().getReturnedClass());
+        final String columnList = String.join(", ", columns);
+        final String values = columns.stream().map(column -> "?").collect(Collectors.joining(", "));
+        if (dialect instanceof PostgreSQL95Dialect) {
+            final List<String> assignments = updateColumns.stream().map(column -> column + " = excluded." + column).collect(Collectors.toList());
+            if (versionColumn != null) {
+                assignments.add(versionColumn + " = " + (incrementVersion ? "t." + versionColumn + " + 1" : "excluded." + versionColumn));
+            }
+            return new Sql(format("insert into %s as t (%s) values (%s) on conflict (%s) do %s", table, columnList, values, String.join(", ", conflictColumns),
+                    assignments.isEmpty() ? "nothing" : "update set " + String.join(", ", assignments)), insert);
+        }
+        if (dialect instanceof MySQLDialect) {
+            //mysql matches rows by any unique key, only the primary key is accepted as conflict target
+            final List<String> assignments = updateColumns.stream().map(column -> column + " = values(" + column + ")").collect(Collectors.toList());
+            if (versionColumn != null) {
+                assignments.add(versionColumn + " = " + (incrementVersion ? versionColumn + " + 1" : "values(" + versionColumn + ")"));
+            }
+            if (assignments.isEmpty()) {
+                assignments.add(conflictColumns.get(0) + " = " + conflictColumns.get(0));
+            }
+            return new Sql(format("insert into %s (%s) values (%s) on duplicate key update %s", table, columnList, values, String.join(", ", assignments)), insert);
+        }
+        if (dialect instanceof H2Dialect) {
+            //h2 merge replaces the whole row matching the key columns so the existing id and version are read back from the row
+            final List<Parameter> conflict = parameters(includeId, property -> true, conflictColumns::contains);
+            final String existingRow = format("from %s t where %s", table,
+                    columnsOf(conflict).stream().map(column -> "t." + column + " = ?").collect(Collectors.joining(" and ")));
+            final List<String> expressions = new ArrayList<>();
+            final List<Parameter> parameters = new ArrayList<>();
+            for (Parameter parameter : insert) {
+                final boolean id = parameter.slot == 0 && !conflictOnId;
+                final boolean version = incrementVersion && parameter.columns.contains(versionColumn);
+                if (!id && !version) {
+                    parameter.columns.forEach(column -> expressions.add("?"));
+                    parameters.add(parameter);
+                    continue;
+                }
+                for (Parameter column : parameter.split()) {
+                    final String name = column.columns.get(0);
+                    expressions.add(format("coalesce((select t.%s %s), ?)", version ? name + " + 1" : name, existingRow));
+                    parameters.addAll(conflict);
+                    parameters.add(column);
+                }
+            }
+            return new Sql(format("merge into %s (%s) key (%s) values (%s)", table, columnList, String.join(", ", conflictColumns),
+                    String.join(", ", expressions)), parameters);
+        }
+        //parameters are bound in the statement clauses instead of a source select because some databases can't infer their types there
+        final List<Parameter> conflict = parameters(includeId, property -> true, conflictColumns::contains);
+        final List<String> assignments = updateColumns.stream().map(column -> "t." + column + " = ?").collect(Collectors.toList());
+        if (versionColumn != null) {
+            if (incrementVersion) {
+                assignments.add("t." + versionColumn + " = t." + versionColumn + " + 1");
+            } else {
+                assignments.add("t." + versionColumn + " = ?");
+                update.addAll(parameters(false, property -> property == versionProperty, column -> true));
+            }
+        }
+        final List<Parameter> parameters = new ArrayList<>(conflict);
+        parameters.addAll(update);
+        parameters.addAll(insert);
+        final String dual = dialect instanceof Oracle8iDialect ? " from dual" : dialect instanceof DB2Dialect ? " from sysibm.sysdummy1" : "";
+        return new Sql(format("merge into %s t using (select 1 as one%s) s on (%s)%s when not matched then insert (%s) values (%s)%s",
+                table, dual,
+                columnsOf(conflict).stream().map(column -> "t." + column + " = ?").collect(Collectors.joining(" and ")),
+                assignments.isEmpty() ? "" : " when matched then update set " + String.join(", ", assignments),
+                columnList, values,
+                dialect instanceof SQLServerDialect ? ";" : ""), parameters);
+    }
+
+    /**
+     * @return parameters of the selected properties columns, in the order they are bound by their types
+     */
+    private List<Parameter> parameters(boolean includeId, IntPredicate propertyFilter, Predicate<String> columnFilter) {
+        final List<Parameter> parameters = new ArrayList<>();
+        if (includeId) {
+            addParameter(parameters, 0, persister.getIdentifierType(), persister.getIdentifierColumnNames(), columnFilter);
+        }
+        for (int i = 0; i < properties.size(); i++) {
+            final int property = properties.get(i);
+            if (propertyFilter.test(property)) {
+                addParameter(parameters, i + 1, persister.getPropertyTypes()[property], persister.getPropertyColumnNames(property), columnFilter);
+            }
+        }
+        return parameters;
+    }
+
+    private static void addParameter(List<Parameter> parameters, int slot, Type type, String[] columns, Predicate<String> columnFilter) {
+        final boolean[] settable = new boolean[columns.length];
+        final List<String> selected = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            settable[i] = columnFilter.test(columns[i]);
+            if (settable[i]) {
+                selected.add(columns[i]);
+            }
+        }
+        if (!selected.isEmpty()) {
+            parameters.add(new Parameter(slot, type, settable, selected));
+        }
+    }
+
+    private static List<String> columnsOf(List<Parameter> parameters) {
+        return parameters.stream()
+                .flatMap(parameter -> parameter.columns.stream())
+                .collect(Collectors.toList());
+    }
+
+    private static class Sql {
+
+        private final String sql;
+        private final List<Parameter> parameters;
+
+        Sql(String sql, List<Parameter> parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+    }
+
+    /**
+     * Columns of an id or property value bound by its type, <code>slot</code> is the value position in the row
+     */
+    private static class Parameter {
+
+        private final int slot;
+        private final Type type;
+        private final boolean[] settable;
+        private final List<String> columns;
+
+        Parameter(int slot, Type type, boolean[] settable, List<String> columns) {
+            this.slot = slot;
+            this.type = type;
+            this.settable = settable;
+            this.columns = columns;
+        }
+
+        /**
+         * @return a parameter for each column
+         */
+        List<Parameter> split() {
+            final List<Parameter> parameters = new ArrayList<>();
+            int column = 0;
+            for (int i = 0; i < settable.length; i++) {
+                if (settable[i]) {
+                    final boolean[] single = new boolean[settable.length];
+                    single[i] = true;
+                    parameters.add(new Parameter(slot, type, single, Collections.singletonList(columns.get(column++))));
+                }
+            }
+            return parameters;
+        }
+    }
+}
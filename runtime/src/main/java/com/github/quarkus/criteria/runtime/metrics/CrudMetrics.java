@@ -0,0 +1,51 @@
+package com.github.quarkus.criteria.runtime.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per entity counters of {@link com.github.quarkus.criteria.runtime.service.CrudService} operations, see {@link EntityMetrics}
+ */
+public class CrudMetrics {
+
+    public static final String FIND_BY_ID_MISS = "findById.miss";
+    public static final String NEGATIVE_CACHE_HIT = "negativeCache.hit";
+    public static final String NEAR_CACHE_HIT = "nearCache.hit";
+    public static final String BATCH_LOAD = "batchLoader.batch";
+    public static final String RETRY_OPTIMISTIC_LOCK = "retry.optimisticLock";
+    public static final String RETRY_SERIALIZATION = "retry.serialization";
+    public static final String RETRY_DEADLOCK = "retry.deadlock";
+    public static final String RETRY_LOCK_TIMEOUT = "retry.lockTimeout";
+    public static final String RETRY_EXHAUSTED = "retry.exhausted";
+    public static final String WRITE_BEHIND_BATCH = "writeBehind.batch";
+    public static final String WRITE_BEHIND_FAILURE = "writeBehind.failure";
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    CrudMetrics() {
+    }
+
+    public void increment(String counter) {
+        counters.computeIfAbsent(counter, name -> new LongAdder()).increment();
+    }
+
+    public long get(String counter) {
+        LongAdder value = counters.get(counter);
+        return value != null ? value.sum() : 0;
+    }
+
+    /**
+     * @return current value of all counters, sorted by name
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, value) -> snapshot.put(name, value.sum()));
+        return snapshot;
+    }
+
+    public void reset() {
+        counters.clear();
+    }
+}
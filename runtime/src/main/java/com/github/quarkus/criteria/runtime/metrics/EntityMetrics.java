@@ -0,0 +1,41 @@
+package com.github.quarkus.criteria.runtime.metrics;
+
+import com.github.quarkus.criteria.runtime.util.EntityRegistry;
+import com.github.quarkus.criteria.runtime.util.RateLimitedLogger;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * {@link CrudMetrics} of the entities, shared by all services of an entity
+ */
+@ApplicationScoped
+public class EntityMetrics {
+
+    private static final Logger LOG = Logger.getLogger(EntityMetrics.class.getName());
+    private static final Duration MISS_LOG_INTERVAL = Duration.ofSeconds(10);
+
+    private final EntityRegistry<CrudMetrics> metrics = new EntityRegistry<>();
+    private final EntityRegistry<RateLimitedLogger> missLoggers = new EntityRegistry<>();
+
+    /**
+     * @return the metrics of given entity, created on first use
+     */
+    public CrudMetrics of(Class<?> entityClass) {
+        return metrics.getOrRegister(entityClass, entity -> new CrudMetrics());
+    }
+
+    /**
+     * Counts a <code>findById</code> miss in {@link CrudMetrics#FIND_BY_ID_MISS} and logs it at most once every 10 seconds per entity
+     */
+    public void miss(Class<?> entityClass, Serializable id) {
+        of(entityClass).increment(CrudMetrics.FIND_BY_ID_MISS);
+        missLoggers.getOrRegister(entityClass, entity -> new RateLimitedLogger(LOG, MISS_LOG_INTERVAL))
+                .log(Level.WARNING, () -> format("Record with id %s not found for entity %s.", id, entityClass.getName()));
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.quarkus.criteria.runtime.model;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A change of an entity record appended to the outbox in the same transaction as the change itself
+ */
+public class ChangeRecord implements Serializable {
+
+    public enum Operation {
+        INSERT, UPDATE, DELETE
+    }
+
+    private final Long sequence;
+    private final String entity;
+    private final String entityId;
+    private final String version;
+    private final Operation operation;
+    private final List<String> attributes;
+    private final Instant createdAt;
+
+    public ChangeRecord(Long sequence, String entity, String entityId, String version, Operation operation, List<String> attributes, Instant createdAt) {
+        this.sequence = sequence;
+        this.entity = entity;
+        this.entityId = entityId;
+        this.version = version;
+        this.operation = operation;
+        this.attributes = attributes != null ? attributes : Collections.emptyList();
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * @return outbox position of the change, <code>null</code> until the record is read from the outbox
+     */
+    public Long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the entity class name
+     */
+    public String getEntity() {
+        return entity;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * @return the record version after the change, <code>null</code> when the entity is not versioned or the version is unknown
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return changed attributes of updates, empty for inserts and deletes
+     */
+    public List<String> getAttributes() {
+        return attributes;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s (version %s) %s", operation, entity, entityId, version, attributes);
+    }
+}
@@ -21,6 +21,7 @@ public class Filter<T extends PersistenceEntity> implements Serializable {
     private SortType sort;
     private List<MultiSort> multiSort = new ArrayList<>();
     private Map<String, Object> params = new HashMap<>();
+    private QueryOptions queryOptions;
 
     public Filter() {
     }
@@ -90,6 +91,18 @@ public class Filter<T extends PersistenceEntity> implements Serializable {
         return params;
     }
 
+    public QueryOptions getQueryOptions() {
+        return queryOptions;
+    }
+
+    /**
+     * @param queryOptions lock mode and hints used by the pagination and count queries
+     */
+    public Filter setQueryOptions(QueryOptions queryOptions) {
+        this.queryOptions = queryOptions;
+        return this;
+    }
+
     public T getEntity() {
         return entity;
     }
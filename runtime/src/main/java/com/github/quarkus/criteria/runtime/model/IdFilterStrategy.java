@@ -0,0 +1,17 @@
+package com.github.quarkus.criteria.runtime.model;
+
+/**
+ * How {@link com.github.quarkus.criteria.runtime.service.CrudService} restricts queries by a collection of primary keys.
+ */
+public enum IdFilterStrategy {
+
+    /**
+     * One bind parameter per id: <code>id IN (?, ?, ...)</code>
+     */
+    IN_LIST,
+    /**
+     * All ids bound as a single SQL array parameter: <code>id = ANY(?)</code>. Only supported on PostgreSQL for entities
+     * with a single column numeric, string or uuid primary key mapped to a single table, otherwise {@link #IN_LIST} is used.
+     */
+    ARRAY_PARAMETER
+}
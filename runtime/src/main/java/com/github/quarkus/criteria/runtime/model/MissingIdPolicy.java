@@ -0,0 +1,21 @@
+package com.github.quarkus.criteria.runtime.model;
+
+/**
+ * What {@link com.github.quarkus.criteria.runtime.service.CrudService#findByIds(java.util.Collection, MissingIdPolicy)}
+ * does with ids which have no matching entity.
+ */
+public enum MissingIdPolicy {
+
+    /**
+     * Missing ids are left out of the result
+     */
+    SKIP,
+    /**
+     * A <code>null</code> element takes the position of each missing id
+     */
+    NULL,
+    /**
+     * A RuntimeException listing the missing ids is thrown
+     */
+    FAIL
+}
@@ -0,0 +1,44 @@
+package com.github.quarkus.criteria.runtime.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A page of entities along with the total number of entities matching the pagination filter
+ *
+ * @param <T> the entity type
+ */
+public class Page<T extends PersistenceEntity> implements Serializable {
+
+    private final List<T> content;
+    private final long total;
+    private final int first;
+    private final int pageSize;
+
+    public Page(List<T> content, long total, int first, int pageSize) {
+        this.content = content;
+        this.total = total;
+        this.first = first;
+        this.pageSize = pageSize;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public boolean hasNext() {
+        return first + content.size() < total;
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.quarkus.criteria.runtime.model;
+
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import java.io.Serializable;
+
+/**
+ * Per call query settings: lock mode and JPA/Hibernate hints. Only configured settings are applied.
+ */
+public class QueryOptions implements Serializable {
+
+    public static final String TIMEOUT_HINT = "javax.persistence.query.timeout";
+    public static final String FETCH_SIZE_HINT = "org.hibernate.fetchSize";
+    public static final String COMMENT_HINT = "org.hibernate.comment";
+    public static final String CACHEABLE_HINT = "org.hibernate.cacheable";
+    public static final String READ_ONLY_HINT = "org.hibernate.readOnly";
+
+    private LockModeType lockMode;
+    private Integer timeout;
+    private Integer fetchSize;
+    private String comment;
+    private Boolean cacheable;
+    private Boolean readOnly;
+
+    public QueryOptions setLockMode(LockModeType lockMode) {
+        this.lockMode = lockMode;
+        return this;
+    }
+
+    public LockModeType getLockMode() {
+        return lockMode;
+    }
+
+    /**
+     * @param timeout query timeout in milliseconds
+     */
+    public QueryOptions setTimeout(Integer timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param fetchSize JDBC fetch size, number of rows fetched per database round trip
+     */
+    public QueryOptions setFetchSize(Integer fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    public Integer getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @param comment SQL comment added to the query (when <code>hibernate.use_sql_comments</code> is enabled), useful for tracing
+     */
+    public QueryOptions setComment(String comment) {
+        this.comment = comment;
+        return this;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    /**
+     * @param cacheable whether the query results go to the second level query cache
+     */
+    public QueryOptions setCacheable(Boolean cacheable) {
+        this.cacheable = cacheable;
+        return this;
+    }
+
+    public Boolean getCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * @param readOnly if <code>true</code> loaded entities are not dirty checked
+     */
+    public QueryOptions setReadOnly(Boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    public Boolean getReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Applies the configured settings to the query
+     *
+     * @return the query
+     */
+    public <Q extends Query> Q applyTo(Q query) {
+        if (lockMode != null) {
+            query.setLockMode(lockMode);
+        }
+        if (timeout != null) {
+            query.setHint(TIMEOUT_HINT, timeout);
+        }
+        if (fetchSize != null) {
+            query.setHint(FETCH_SIZE_HINT, fetchSize);
+        }
+        if (comment != null) {
+            query.setHint(COMMENT_HINT, comment);
+        }
+        if (cacheable != null) {
+            query.setHint(CACHEABLE_HINT, cacheable);
+        }
+        if (readOnly != null) {
+            query.setHint(READ_ONLY_HINT, readOnly);
+        }
+        return query;
+    }
+
+    /**
+     * @return a copy of these options without lock mode, used by aggregate queries which can't be locked
+     */
+    public QueryOptions withoutLock() {
+        return new QueryOptions()
+                .setTimeout(timeout)
+                .setFetchSize(fetchSize)
+                .setComment(comment)
+                .setCacheable(cacheable)
+                .setReadOnly(readOnly);
+    }
+}
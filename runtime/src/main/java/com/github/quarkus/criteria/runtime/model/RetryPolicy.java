@@ -0,0 +1,152 @@
+package com.github.quarkus.criteria.runtime.model;
+
+import com.github.quarkus.criteria.runtime.metrics.CrudMetrics;
+import org.hibernate.StaleStateException;
+import org.hibernate.exception.LockAcquisitionException;
+
+import javax.persistence.OptimisticLockException;
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry settings of {@link com.github.quarkus.criteria.runtime.service.CrudService} writes which fail because of concurrent
+ * changes: optimistic lock, serialization and deadlock failures. Attempts are delayed with exponential backoff plus jitter.
+ */
+public class RetryPolicy implements Serializable {
+
+    private int maxAttempts = 3;
+    private Duration initialBackoff = Duration.ofMillis(50);
+    private Duration maxBackoff = Duration.ofSeconds(1);
+    private double jitter = 0.5;
+    private boolean retryTransientFailures = true;
+    private boolean retryLockTimeouts;
+
+    /**
+     * @param maxAttempts max number of attempts, including the first one
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Retry max attempts should be greater than zero");
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param initialBackoff delay before the second attempt, it doubles on each new attempt up to <code>maxBackoff</code>
+     */
+    public RetryPolicy setBackoff(Duration initialBackoff, Duration maxBackoff) {
+        if (initialBackoff == null || initialBackoff.isNegative() || maxBackoff == null || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException("Retry backoff should be positive and not greater than max backoff");
+        }
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        return this;
+    }
+
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * @param jitter fraction of the backoff which is randomized, from 0 (no jitter) to 1 (full jitter)
+     */
+    public RetryPolicy setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Retry jitter should be between 0 and 1");
+        }
+        this.jitter = jitter;
+        return this;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param retryTransientFailures if <code>true</code> (default) serialization and deadlock failures are retried as well
+     */
+    public RetryPolicy setRetryTransientFailures(boolean retryTransientFailures) {
+        this.retryTransientFailures = retryTransientFailures;
+        return this;
+    }
+
+    public boolean isRetryTransientFailures() {
+        return retryTransientFailures;
+    }
+
+    /**
+     * MySQL lock wait timeouts (error 1205) roll back only the failed statement unless the server runs with
+     * <code>innodb_rollback_on_timeout</code>, so they are not retried by default.
+     *
+     * @param retryLockTimeouts if <code>true</code> MySQL lock wait timeouts are retried as well, requires transient failures retry
+     */
+    public RetryPolicy setRetryLockTimeouts(boolean retryLockTimeouts) {
+        this.retryLockTimeouts = retryLockTimeouts;
+        return this;
+    }
+
+    public boolean isRetryLockTimeouts() {
+        return retryLockTimeouts;
+    }
+
+    /**
+     * @param attempt the attempt which failed, starting at 1
+     * @return how long to wait before next attempt
+     */
+    public Duration backoff(int attempt) {
+        final long exponential = initialBackoff.toMillis() << Math.min(attempt - 1, 30);
+        final long backoff = Math.min(maxBackoff.toMillis(), exponential < 0 ? Long.MAX_VALUE : exponential);
+        final long randomized = (long) (backoff * jitter * ThreadLocalRandom.current().nextDouble());
+        return Duration.ofMillis(backoff - randomized);
+    }
+
+    /**
+     * Failures are classified by the SQL state or vendor error code of the underlying {@link SQLException}, as Hibernate translates
+     * both serialization failures and deadlocks into a {@link LockAcquisitionException}. The exception type is only used when the
+     * SQL state is unknown.
+     *
+     * @return the {@link CrudMetrics} retry counter of the failure or <code>null</code> if the failure should not be retried
+     */
+    public String retryCounterOf(Throwable failure) {
+        boolean lockAcquisition = false;
+        for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return CrudMetrics.RETRY_OPTIMISTIC_LOCK;
+            }
+            if (!retryTransientFailures) {
+                continue;
+            }
+            if (cause instanceof LockAcquisitionException) {
+                lockAcquisition = true;
+            }
+            if (cause instanceof SQLException) {
+                final SQLException sqlException = (SQLException) cause;
+                final String sqlState = sqlException.getSQLState();
+                final int errorCode = sqlException.getErrorCode();
+                //1205 is a deadlock victim on sql server (state 40001) and a lock wait timeout on mysql
+                if (errorCode == 1205 && !"40001".equals(sqlState)) {
+                    return retryLockTimeouts ? CrudMetrics.RETRY_LOCK_TIMEOUT : null;
+                }
+                //postgres deadlock state, mysql, sql server and oracle deadlock error codes
+                if ("40P01".equals(sqlState) || errorCode == 1213 || errorCode == 1205 || errorCode == 60) {
+                    return CrudMetrics.RETRY_DEADLOCK;
+                }
+                if ("40001".equals(sqlState)) {
+                    return CrudMetrics.RETRY_SERIALIZATION;
+                }
+            }
+        }
+        return lockAcquisition ? CrudMetrics.RETRY_DEADLOCK : null;
+    }
+}
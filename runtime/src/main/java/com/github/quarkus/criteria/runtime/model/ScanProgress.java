@@ -0,0 +1,54 @@
+package com.github.quarkus.criteria.runtime.model;
+
+/**
+ * Progress of a scan over the entities of a criteria
+ */
+public class ScanProgress {
+
+    private final long processed;
+    private final long total;
+    private final int completedPartitions;
+    private final int partitions;
+
+    public ScanProgress(long processed, long total, int completedPartitions, int partitions) {
+        this.processed = processed;
+        this.total = total;
+        this.completedPartitions = completedPartitions;
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return number of entities processed so far
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return number of entities matching the criteria when the scan started
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int getCompletedPartitions() {
+        return completedPartitions;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return processed percentage, from 0 to 100
+     */
+    public int getPercentage() {
+        return total == 0 ? 100 : (int) Math.min(100, processed * 100 / total);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d entities processed (%d%%), %d/%d partitions completed", processed, total, getPercentage(),
+                completedPartitions, partitions);
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.criteria.example.WithCriteriaDsl;
+import com.github.quarkus.criteria.runtime.model.Filter;
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import io.smallrye.mutiny.Uni;
+import org.apache.deltaspike.data.api.criteria.Criteria;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade of a {@link CrudService}: operations run on the bounded {@link CriteriaExecutor} instead of the caller thread.
+ * <p>
+ * A JTA transaction is bound to a thread so operations never join the caller transaction: reads run with their own
+ * request context (and persistence context) and writes run in a new transaction which is committed before the stage completes.
+ * Entities handed to or returned by the facade are therefore detached.
+ * <p>
+ * Use {@link AsyncCrudService#mutiny()} to get the same operations as Mutiny {@link Uni}.
+ *
+ * @param <T> the entity type
+ * @see CrudService#async()
+ */
+public class AsyncCrudService<T extends PersistenceEntity> {
+
+    private final CrudService<T> crudService;
+    private final CriteriaExecutor criteriaExecutor;
+
+    AsyncCrudService(CrudService<T> crudService, CriteriaExecutor criteriaExecutor) {
+        this.crudService = crudService;
+        this.criteriaExecutor = criteriaExecutor;
+    }
+
+    public CompletionStage<List<T>> paginate(Filter<T> filter) {
+        return read(service -> service.paginate(filter));
+    }
+
+    public CompletionStage<Long> count() {
+        return read(CrudService::count);
+    }
+
+    public CompletionStage<Long> count(Filter<T> filter) {
+        return read(service -> service.count(filter));
+    }
+
+    public CompletionStage<T> findById(Serializable id) {
+        return read(service -> service.findById(id));
+    }
+
+    /**
+     * @param example the example entity
+     * @param query   configures the example restrictions, e.g <code>dsl -&gt; dsl.with(Car_.model).build()</code>
+     * @return entities matching the example
+     */
+    public CompletionStage<List<T>> findByExample(T example, Function<WithCriteriaDsl<T>, Criteria> query) {
+        return read(service -> (List<T>) query.apply(service.exampleBuilder.of(example)).getResultList());
+    }
+
+    public CompletionStage<T> insert(T entity) {
+        return write(service -> service.insert(entity));
+    }
+
+    public CompletionStage<T> update(T entity) {
+        return write(service -> service.update(entity));
+    }
+
+    public CompletionStage<Void> delete(T entity) {
+        return write(service -> {
+            service.delete(entity);
+            return null;
+        });
+    }
+
+    /**
+     * Runs arbitrary work with the service outside of a transaction
+     */
+    public <R> CompletionStage<R> read(Function<CrudService<T>, R> work) {
+        return criteriaExecutor.supplyAsync(() -> work.apply(crudService));
+    }
+
+    /**
+     * Runs arbitrary work with the service in a new transaction
+     */
+    public <R> CompletionStage<R> write(Function<CrudService<T>, R> work) {
+        return criteriaExecutor.supplyAsyncInNewTransaction(() -> work.apply(crudService));
+    }
+
+    /**
+     * @return the operations of this facade as lazy {@link Uni}, the work is only submitted on subscription
+     */
+    public Mutiny mutiny() {
+        return new Mutiny();
+    }
+
+    /**
+     * Operations of the {@link AsyncCrudService} as Mutiny {@link Uni}
+     */
+    public class Mutiny {
+
+        public Uni<List<T>> paginate(Filter<T> filter) {
+            return uni(() -> AsyncCrudService.this.paginate(filter));
+        }
+
+        public Uni<Long> count() {
+            return uni(AsyncCrudService.this::count);
+        }
+
+        public Uni<Long> count(Filter<T> filter) {
+            return uni(() -> AsyncCrudService.this.count(filter));
+        }
+
+        public Uni<T> findById(Serializable id) {
+            return uni(() -> AsyncCrudService.this.findById(id));
+        }
+
+        public Uni<List<T>> findByExample(T example, Function<WithCriteriaDsl<T>, Criteria> query) {
+            return uni(() -> AsyncCrudService.this.findByExample(example, query));
+        }
+
+        public Uni<T> insert(T entity) {
+            return uni(() -> AsyncCrudService.this.insert(entity));
+        }
+
+        public Uni<T> update(T entity) {
+            return uni(() -> AsyncCrudService.this.update(entity));
+        }
+
+        public Uni<Void> delete(T entity) {
+            return uni(() -> AsyncCrudService.this.delete(entity));
+        }
+
+        public <R> Uni<R> read(Function<CrudService<T>, R> work) {
+            return uni(() -> AsyncCrudService.this.read(work));
+        }
+
+        public <R> Uni<R> write(Function<CrudService<T>, R> work) {
+            return uni(() -> AsyncCrudService.this.write(work));
+        }
+
+        private <R> Uni<R> uni(Supplier<CompletionStage<R>> stage) {
+            return Uni.createFrom().completionStage(stage);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Coalesces lookups by id issued within a short time window into a single query.
+ * <p>
+ * Pending lookups are dispatched when <code>maxBatchSize</code> distinct ids are collected or when the
+ * window, which starts at the first pending lookup, elapses.
+ *
+ * @param <T> the loaded entity type
+ */
+public class BatchLoader<T extends PersistenceEntity> {
+
+    private final Function<Collection<Serializable>, CompletionStage<List<T>>> batchLoad;
+    private final Function<Serializable, Serializable> idConverter;
+    private final CriteriaExecutor criteriaExecutor;
+    private final int maxBatchSize;
+    private final long windowMicros;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Map<Serializable, CompletableFuture<T>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledDispatch;
+
+    /**
+     * @param batchLoad        loads entities of given ids, entities not found should be absent from the result
+     * @param idConverter      converts requested ids to the entity id type (e.g. <code>Long</code> to <code>Integer</code>) so they
+     *                         match the ids of loaded entities
+     * @param criteriaExecutor executor used to schedule window based dispatches
+     * @param maxBatchSize     max number of ids per query
+     * @param window           max time a lookup waits for other lookups
+     */
+    public BatchLoader(Function<Collection<Serializable>, CompletionStage<List<T>>> batchLoad, Function<Serializable, Serializable> idConverter,
+                       CriteriaExecutor criteriaExecutor, int maxBatchSize, Duration window) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be greater than zero");
+        }
+        this.batchLoad = batchLoad;
+        this.idConverter = idConverter;
+        this.criteriaExecutor = criteriaExecutor;
+        this.maxBatchSize = maxBatchSize;
+        this.windowMicros = TimeUnit.NANOSECONDS.toMicros(window.toNanos());
+    }
+
+    /**
+     * @param id the entity id
+     * @return a stage completed with the entity or <code>null</code> if it was not found
+     */
+    public CompletionStage<T> load(Serializable id) {
+        if (id == null) {
+            throw new IllegalArgumentException("Id cannot be null");
+        }
+        final Serializable key = idConverter.apply(id);
+        CompletableFuture<T> result;
+        Map<Serializable, CompletableFuture<T>> batch = null;
+        lock.lock();
+        try {
+            result = pending.computeIfAbsent(key, k -> new CompletableFuture<>());
+            if (pending.size() >= maxBatchSize) {
+                batch = takePending();
+            } else if (scheduledDispatch == null) {
+                scheduledDispatch = criteriaExecutor.getScheduler().schedule(this::dispatchPending, windowMicros, TimeUnit.MICROSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        return result;
+    }
+
+    /**
+     * Dispatches pending lookups without waiting for the window to elapse
+     */
+    public void dispatchPending() {
+        Map<Serializable, CompletableFuture<T>> batch;
+        lock.lock();
+        try {
+            batch = takePending();
+        } finally {
+            lock.unlock();
+        }
+        dispatch(batch);
+    }
+
+    private Map<Serializable, CompletableFuture<T>> takePending() {
+        Map<Serializable, CompletableFuture<T>> batch = pending;
+        pending = new LinkedHashMap<>();
+        if (scheduledDispatch != null) {
+            scheduledDispatch.cancel(false);
+            scheduledDispatch = null;
+        }
+        return batch;
+    }
+
+    private void dispatch(Map<Serializable, CompletableFuture<T>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final CompletionStage<List<T>> loaded;
+        try {
+            loaded = batchLoad.apply(new ArrayList<>(batch.keySet()));
+        } catch (RuntimeException e) {
+            batch.values().forEach(future -> future.completeExceptionally(e));
+            return;
+        }
+        loaded.whenComplete((entities, error) -> {
+            if (error != null) {
+                batch.values().forEach(future -> future.completeExceptionally(error));
+                return;
+            }
+            for (T entity : entities) {
+                CompletableFuture<T> future = batch.get(entity.getId());
+                if (future != null) {
+                    future.complete(entity);
+                }
+            }
+            batch.values().forEach(future -> future.complete(null)); //not found
+        });
+    }
+}
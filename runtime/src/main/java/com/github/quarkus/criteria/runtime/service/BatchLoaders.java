@@ -0,0 +1,40 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import com.github.quarkus.criteria.runtime.util.EntityRegistry;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import java.util.function.Supplier;
+
+/**
+ * {@link BatchLoader}s of the entities, shared by all services of an entity so lookups of every service instance are coalesced
+ */
+@ApplicationScoped
+public class BatchLoaders {
+
+    private final EntityRegistry<BatchLoader<?>> loaders = new EntityRegistry<>();
+
+    /**
+     * Enables the batch loader of given entity, lookups pending in the previous loader (if any) are dispatched
+     */
+    public <T extends PersistenceEntity> BatchLoader<T> enable(Class<T> entityClass, BatchLoader<T> loader) {
+        final BatchLoader<?> previous = loaders.register(entityClass, loader);
+        if (previous != null) {
+            previous.dispatchPending();
+        }
+        return loader;
+    }
+
+    /**
+     * @return the batch loader of given entity, enabling the one created by the factory when there is none
+     */
+    public <T extends PersistenceEntity> BatchLoader<T> getOrEnable(Class<T> entityClass, Supplier<BatchLoader<T>> factory) {
+        return (BatchLoader<T>) loaders.getOrRegister(entityClass, entity -> factory.get());
+    }
+
+    @PreDestroy
+    public void clear() {
+        loaders.clear();
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.jdbc.UpsertStatement;
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import org.hibernate.Session;
+import org.jboss.logmanager.Level;
+
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.SingularAttribute;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static com.github.quarkus.criteria.runtime.service.CrudService.DEFAULT_BATCH_SIZE;
+import static java.lang.String.format;
+
+/**
+ * Batch writes of a {@link CrudService}: entities are written in batches of the given size, batch hooks are invoked once per batch,
+ * caches are invalidated and changes are recorded as in single entity writes. Operations join the caller transaction, the service
+ * methods which delegate to them define the transaction.
+ *
+ * @param <T> the entity type
+ */
+class BatchOperations<T extends PersistenceEntity> {
+
+    private static final Logger LOG = Logger.getLogger(BatchOperations.class.getName());
+
+    private final CrudService<T> crudService;
+    private final Map<List<String>, Optional<UpsertStatement<T>>> upsertStatements = new ConcurrentHashMap<>();
+
+    BatchOperations(CrudService<T> crudService) {
+        this.crudService = crudService;
+    }
+
+    int deleteBatch(List<T> entities, Integer batchSize) {
+        if (batchSize == null || batchSize < 1) {
+            LOG.warning("Invalid batch size to remove entities, using default batch size: " + DEFAULT_BATCH_SIZE);
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+        if (entities == null) {
+            throw new RuntimeException("Entities cannot be null");
+        }
+        int removedEntitiesCount = 0;
+        final int total = entities.size();
+        final int batches = (int) Math.ceil((double)total / batchSize);
+        for (int i = 0; i < batches; i++) {
+            int currentBatch = i+1;
+            LOG.log(Level.DEBUG, "Removing batch: " + currentBatch);
+            int batchStart = batchSize * i;
+            int batchEnd = batchStart + batchSize;
+            if (batchEnd > total) {
+                batchEnd = total;
+            }
+            List<T> entitiesBatch = entities.subList(batchStart, batchEnd);
+            Set<Serializable> pks = crudService.collectEntitiesPk(entitiesBatch);
+            if(pks.size() == 0) {
+                LOG.warning(format("Skipping batch %d because no primary keys were found in entities to delete.", currentBatch));
+                continue;
+            }
+            crudService.beforeDeleteBatch(entitiesBatch);
+            crudService.evictAllFromNearCache(pks);
+            //only rows which exist are recorded, they are locked so the delete removes exactly them
+            final Set<Serializable> existingPks = crudService.isRecordingChanges() ? crudService.lockExistingIds(pks) : null;
+            final int entitiesDeleted = crudService.deleteByIdsInList(pks);
+            if (existingPks != null) {
+                crudService.recordChanges(ChangeRecord.Operation.DELETE, entitiesBatch.stream()
+                        .filter(e -> e.getId() != null && existingPks.contains(e.getId()))
+                        .collect(Collectors.toList()), null);
+            }
+            crudService.afterDeleteBatch(entitiesBatch);
+            LOG.log(Level.DEBUG, format("Entities removed in batch %d: %d ", i, entitiesDeleted));
+            removedEntitiesCount += entitiesDeleted;
+        }
+        return removedEntitiesCount;
+    }
+
+    List<T> insertBatch(List<T> entities, Integer batchSize) {
+        if (entities == null) {
+            throw new RuntimeException("Entities cannot be null");
+        }
+        if (entities.contains(null)) {
+            throw new RuntimeException("Record cannot be null");
+        }
+        final EntityManager entityManager = crudService.getEntityManager();
+        inBatches(entities, batchSize, batch -> {
+            crudService.beforeInsertBatch(batch);
+            batch.forEach(entityManager::persist);
+            entityManager.flush();
+            crudService.clearNegativeCache();
+            crudService.recordChanges(ChangeRecord.Operation.INSERT, batch, null);
+            crudService.afterInsertBatch(batch);
+            batch.forEach(entityManager::detach);
+        });
+        return entities;
+    }
+
+    List<T> updateBatch(List<T> entities, Integer batchSize) {
+        if (entities == null) {
+            throw new RuntimeException("Entities cannot be null");
+        }
+        for (T entity : entities) {
+            if (entity == null) {
+                throw new RuntimeException("Record cannot be null");
+            }
+            if (entity.getId() == null) {
+                throw new RuntimeException("Record cannot be transient");
+            }
+        }
+        final EntityManager entityManager = crudService.getEntityManager();
+        final List<T> updated = new ArrayList<>(entities.size());
+        inBatches(entities, batchSize, batch -> {
+            crudService.beforeUpdateBatch(batch);
+            crudService.evictAllFromNearCache(crudService.collectEntitiesPk(batch));
+            final List<T> merged = batch.stream()
+                    .map(entityManager::merge)
+                    .collect(Collectors.toList());
+            final Map<T, List<String>> changedAttributes = new IdentityHashMap<>();
+            merged.forEach(entity -> changedAttributes.put(entity, crudService.changedAttributes(entity)));
+            entityManager.flush();
+            crudService.clearNegativeCache();
+            crudService.recordChanges(ChangeRecord.Operation.UPDATE, merged, changedAttributes::get);
+            crudService.afterUpdateBatch(merged);
+            merged.forEach(entityManager::detach);
+            updated.addAll(merged);
+        });
+        return updated;
+    }
+
+    int upsertBatch(Collection<T> entities, SingularAttribute<? super T, ?>... conflictTarget) {
+        if (entities == null) {
+            throw new RuntimeException("Entities cannot be null");
+        }
+        if (entities.isEmpty()) {
+            return 0;
+        }
+        final Class<T> entityClass = crudService.getEntityClass();
+        final EntityManager entityManager = crudService.getEntityManager();
+        final List<String> conflictAttributes = Arrays.stream(conflictTarget).map(Attribute::getName).collect(Collectors.toList());
+        final UpsertStatement<T> upsertStatement = upsertStatements.computeIfAbsent(conflictAttributes, attributes ->
+                Optional.ofNullable(UpsertStatement.of(entityManager, entityClass, attributes.toArray(new String[0]))))
+                .orElseThrow(() -> new RuntimeException(format("Upsert is not supported for entity %s in current database.", entityClass.getName())));
+        entityManager.flush();
+        crudService.evictAllFromNearCache(crudService.collectEntitiesPk(new ArrayList<>(entities)).stream().filter(Objects::nonNull).collect(Collectors.toList()));
+        final int rows = upsertStatement.execute(entityManager, entities);
+        crudService.clearNegativeCache();
+        return rows;
+    }
+
+    /**
+     * Runs the work for each batch of entities with the session JDBC batch size set to the batch size
+     */
+    private void inBatches(List<T> entities, Integer batchSize, Consumer<List<T>> work) {
+        if (batchSize == null || batchSize < 1) {
+            LOG.warning("Invalid batch size, using default batch size: " + DEFAULT_BATCH_SIZE);
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+        final Session session = crudService.getEntityManager().unwrap(Session.class);
+        final Integer jdbcBatchSize = session.getJdbcBatchSize();
+        session.setJdbcBatchSize(batchSize);
+        try {
+            for (int i = 0; i < entities.size(); i += batchSize) {
+                LOG.log(Level.DEBUG, "Processing batch: " + (i / batchSize + 1));
+                work.accept(entities.subList(i, Math.min(i + batchSize, entities.size())));
+            }
+        } finally {
+            session.setJdbcBatchSize(jdbcBatchSize);
+        }
+    }
+}
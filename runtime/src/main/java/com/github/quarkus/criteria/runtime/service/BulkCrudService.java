@@ -0,0 +1,228 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
+import com.github.quarkus.criteria.runtime.model.Filter;
+import com.github.quarkus.criteria.runtime.model.MultiSort;
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import com.github.quarkus.criteria.runtime.model.SortType;
+import org.apache.deltaspike.data.api.criteria.Criteria;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.jboss.logmanager.Level;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TransactionRequiredException;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+
+/**
+ * Bulk facade of a {@link CrudService}: operations run on a Hibernate {@link StatelessSession}, so there is no persistence
+ * context (first level cache, snapshots and dirty checking) and heap usage doesn't grow with the number of entities.
+ * <p>
+ * Only criteria restrictions are used (see {@link Criteria#predicates(CriteriaBuilder, Path)}), criteria ordering and fetches are
+ * ignored. Read entities are always detached: associations which are not eagerly loaded can't be initialized. Writes don't cascade,
+ * ignore collections, and join the caller transaction (or run in a new one). Batch hooks, near cache, negative cache,
+ * outbox and change events work as in {@link CrudService#insertBatch(List, Integer)} and {@link CrudService#updateBatch(List, Integer)}.
+ *
+ * @param <T> the entity type
+ * @see CrudService#bulk()
+ */
+public class BulkCrudService<T extends PersistenceEntity> {
+
+    private static final Logger LOG = Logger.getLogger(BulkCrudService.class.getName());
+
+    private final CrudService<T> crudService;
+    private final ContextualWork contextualWork;
+
+    BulkCrudService(CrudService<T> crudService, ContextualWork contextualWork) {
+        this.crudService = crudService;
+        this.contextualWork = contextualWork;
+    }
+
+    /**
+     * @param criteria restrictions of entities to list
+     * @return detached entities matching the criteria restrictions
+     */
+    public List<T> list(Criteria<T, T> criteria) {
+        return inStatelessSession(session -> session.createQuery(query(criteria, null)).getResultList());
+    }
+
+    /**
+     * Lists a page of entities using the restrictions of {@link CrudService#configPagination(Filter)} and the filter sort
+     *
+     * @param filter Contains pagination configuration
+     * @return detached entities of the page
+     */
+    public List<T> list(Filter<T> filter) {
+        crudService.validateFilter(filter);
+        return inStatelessSession(session -> session.createQuery(query(crudService.configPagination(filter), filter))
+                .setFirstResult(filter.getFirst())
+                .setMaxResults(filter.getPageSize())
+                .getResultList());
+    }
+
+    /**
+     * Streams the entities matching the criteria restrictions with a forward only cursor. The stream holds a database connection
+     * so it must be closed, e.g. using try with resources, and consumed before the transaction ends.
+     * <p>
+     * It must run in a transaction: some drivers, e.g. PostgreSQL, ignore the fetch size in auto commit mode and read every row at once.
+     *
+     * @param criteria  restrictions of entities to stream
+     * @param fetchSize number of rows fetched per database round trip
+     * @return a stream of detached entities
+     * @throws TransactionRequiredException if there is no active transaction
+     */
+    public Stream<T> stream(Criteria<T, T> criteria, int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size should be greater than zero");
+        }
+        if (!crudService.getEntityManager().isJoinedToTransaction()) {
+            throw new TransactionRequiredException(format("Streaming entities of %s requires an active transaction.",
+                    crudService.getEntityClass().getName()));
+        }
+        final StatelessSession session = openStatelessSession();
+        try {
+            return session.createQuery(query(criteria, null))
+                    .setFetchSize(fetchSize)
+                    .stream()
+                    .onClose(session::close);
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Inserts entities in batches using JDBC batching, insert batch hooks are invoked once per batch
+     *
+     * @param entities  records to insert
+     * @param batchSize number of entities per batch
+     * @return the inserted entities
+     */
+    public List<T> insertBatch(List<T> entities, Integer batchSize) {
+        if (entities == null) {
+            throw new RuntimeException("Entities cannot be null");
+        }
+        if (entities.contains(null)) {
+            throw new RuntimeException("Record cannot be null");
+        }
+        return contextualWork.inTransaction(() -> inStatelessSession(session -> {
+            inBatches(session, entities, batchSize, batch -> {
+                crudService.beforeInsertBatch(batch);
+                batch.forEach(session::insert);
+                executeBatch(session);
+                crudService.clearNegativeCache();
+                crudService.recordChanges(ChangeRecord.Operation.INSERT, batch, null);
+                crudService.afterInsertBatch(batch);
+            });
+            return entities;
+        }));
+    }
+
+    /**
+     * Updates every column of the entities in batches using JDBC batching, update batch hooks are invoked once per batch.
+     * Versions are checked and incremented on the given entities.
+     *
+     * @param entities  records to update
+     * @param batchSize number of entities per batch
+     * @return the updated entities
+     * @throws org.hibernate.StaleStateException when a record was changed or removed since its version was read
+     */
+    public List<T> updateBatch(List<T> entities, Integer batchSize) {
+        if (entities == null) {
+            throw new RuntimeException("Entities cannot be null");
+        }
+        for (T entity : entities) {
+            if (entity == null) {
+                throw new RuntimeException("Record cannot be null");
+            }
+            if (entity.getId() == null) {
+                throw new RuntimeException("Record cannot be transient");
+            }
+        }
+        return contextualWork.inTransaction(() -> inStatelessSession(session -> {
+            inBatches(session, entities, batchSize, batch -> {
+                crudService.beforeUpdateBatch(batch);
+                crudService.evictAllFromNearCache(crudService.collectEntitiesPk(batch));
+                batch.forEach(session::update);
+                executeBatch(session);
+                crudService.recordChanges(ChangeRecord.Operation.UPDATE, batch, null);
+                crudService.afterUpdateBatch(batch);
+            });
+            return entities;
+        }));
+    }
+
+    private CriteriaQuery<T> query(Criteria<T, T> criteria, Filter<T> filter) {
+        final EntityManager entityManager = crudService.getEntityManager();
+        final CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<T> query = builder.createQuery(crudService.getEntityClass());
+        final Root<T> root = query.from(crudService.getEntityClass());
+        query.select(root).where(criteria.predicates(builder, root).toArray(new Predicate[0]));
+        if (filter != null) {
+            final List<Order> orders = new ArrayList<>();
+            if (!filter.getMultiSort().isEmpty()) {
+                for (MultiSort multiSort : filter.getMultiSort()) {
+                    addOrder(orders, builder, root, multiSort.getSort(), multiSort.getSortField());
+                }
+            } else {
+                addOrder(orders, builder, root, filter.getSortType(), filter.getSortField());
+            }
+            query.orderBy(orders);
+        }
+        return query;
+    }
+
+    private static void addOrder(List<Order> orders, CriteriaBuilder builder, Root<?> root, SortType sort, String sortField) {
+        if (sortField != null) {
+            orders.add(sort == SortType.DESCENDING ? builder.desc(root.get(sortField)) : builder.asc(root.get(sortField)));
+        }
+    }
+
+    private void inBatches(StatelessSession session, List<T> entities, Integer batchSize, Consumer<List<T>> work) {
+        if (batchSize == null || batchSize < 1) {
+            LOG.warning("Invalid batch size, using default batch size: " + CrudService.DEFAULT_BATCH_SIZE);
+            batchSize = CrudService.DEFAULT_BATCH_SIZE;
+        }
+        session.setJdbcBatchSize(batchSize);
+        for (int i = 0; i < entities.size(); i += batchSize) {
+            LOG.log(Level.DEBUG, "Processing bulk batch: " + (i / batchSize + 1));
+            work.accept(entities.subList(i, Math.min(i + batchSize, entities.size())));
+        }
+    }
+
+    private static void executeBatch(StatelessSession session) {
+        ((SharedSessionContractImplementor) session).getJdbcCoordinator().executeBatch();
+    }
+
+    private <R> R inStatelessSession(Function<StatelessSession, R> work) {
+        try (StatelessSession session = openStatelessSession()) {
+            return work.apply(session);
+        }
+    }
+
+    /**
+     * Pending changes of the persistence context are flushed first so they are seen by the stateless session
+     */
+    private StatelessSession openStatelessSession() {
+        final EntityManager entityManager = crudService.getEntityManager();
+        if (entityManager.isJoinedToTransaction()) {
+            entityManager.flush();
+        }
+        LOG.log(Level.DEBUG, () -> format("Opening stateless session for entity %s.", crudService.getEntityClass().getName()));
+        return entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).openStatelessSession();
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.event.ChangeEventPublisher;
+import com.github.quarkus.criteria.runtime.event.EntityChangeEvent;
+import com.github.quarkus.criteria.runtime.jdbc.OutboxTable;
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
+import com.github.quarkus.criteria.runtime.util.EntityRegistry;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Records the changes made through CrudServices in the outbox of their entity and publishes them as {@link EntityChangeEvent}s,
+ * according to what is enabled for the entity. Inside a {@link UnitOfWork} changes are recorded after its final flush
+ * so recorded versions are the flushed ones.
+ */
+@ApplicationScoped
+public class ChangeRecorder {
+
+    @Inject
+    protected ChangeEventPublisher changeEventPublisher;
+
+    @Inject
+    protected UnitOfWork unitOfWork;
+
+    private final EntityRegistry<OutboxTable> outboxes = new EntityRegistry<>();
+    private final EntityRegistry<Boolean> changeEvents = new EntityRegistry<>();
+
+    public void enableOutbox(Class<?> entityClass, OutboxTable outbox) {
+        outboxes.register(entityClass, outbox);
+    }
+
+    public void disableOutbox(Class<?> entityClass) {
+        outboxes.remove(entityClass);
+    }
+
+    /**
+     * @return <code>true</code> if changes of given entity are appended to an outbox
+     */
+    public boolean isOutboxEnabled(Class<?> entityClass) {
+        return outboxes.get(entityClass) != null;
+    }
+
+    public void enableChangeEvents(Class<?> entityClass) {
+        changeEvents.register(entityClass, Boolean.TRUE);
+    }
+
+    public void disableChangeEvents(Class<?> entityClass) {
+        changeEvents.remove(entityClass);
+    }
+
+    /**
+     * @return <code>true</code> if changes of given entity are recorded in an outbox or published as events
+     */
+    public boolean isRecording(Class<?> entityClass) {
+        return outboxes.get(entityClass) != null || changeEvents.get(entityClass) != null;
+    }
+
+    /**
+     * Records the changes of the entities
+     *
+     * @param version           reads the version of an entity, once it is flushed
+     * @param changedAttributes attributes changed in each entity, <code>null</code> when they are unknown
+     */
+    public <T> void record(EntityManager entityManager, Class<T> entityClass, ChangeRecord.Operation operation, Collection<T> entities,
+                           Function<T, Serializable> id, Function<T, Object> version, Function<T, List<String>> changedAttributes) {
+        final OutboxTable outbox = outboxes.get(entityClass);
+        final boolean publish = changeEvents.get(entityClass) != null;
+        if (outbox == null && !publish) {
+            return;
+        }
+        unitOfWork.afterFlush(() -> {
+            final List<ChangeRecord> records = new ArrayList<>(entities.size());
+            final List<EntityChangeEvent> events = new ArrayList<>(entities.size());
+            for (T entity : entities) {
+                final Serializable entityId = id.apply(entity);
+                final Object entityVersion = version.apply(entity);
+                if (outbox != null) {
+                    records.add(new ChangeRecord(null, entityClass.getName(), String.valueOf(entityId), entityVersion != null ? entityVersion.toString() : null,
+                            operation, changedAttributes != null ? changedAttributes.apply(entity) : null, null));
+                }
+                if (publish) {
+                    events.add(new EntityChangeEvent(entityClass, entityId, entityVersion, operation));
+                }
+            }
+            if (outbox != null) {
+                outbox.append(entityManager, records);
+            }
+            if (publish) {
+                changeEventPublisher.publish(events);
+            }
+        });
+    }
+
+    /**
+     * Records the update of a record which is not loaded, e.g. a patch
+     *
+     * @param version           the new version of the record
+     * @param changedAttributes updated attributes
+     */
+    public void recordUpdate(EntityManager entityManager, Class<?> entityClass, Serializable id, Object version, List<String> changedAttributes) {
+        record(entityManager, (Class<Object>) entityClass, ChangeRecord.Operation.UPDATE, Collections.singletonList(id),
+                updatedId -> id, updatedId -> version, updatedId -> changedAttributes);
+    }
+
+    @PreDestroy
+    public void clear() {
+        outboxes.clear();
+        changeEvents.clear();
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.control.ActivateRequestContext;
+import javax.transaction.Transactional;
+import java.util.function.Supplier;
+
+/**
+ * Runs work with the contexts needed by {@link CrudService} operations, mainly used by work executed outside
+ * of the caller thread, see {@link CriteriaExecutor}.
+ */
+@ApplicationScoped
+public class ContextualWork {
+
+    /**
+     * Runs the work with an active request context so the entity manager can be used outside of a transaction.
+     * If there is no active request context a new one is activated and terminated after the work completes.
+     */
+    @ActivateRequestContext
+    public <R> R inRequestContext(Supplier<R> work) {
+        return work.get();
+    }
+
+    /**
+     * Runs the work in current transaction or in a new one when there is no active transaction
+     */
+    @Transactional
+    public <R> R inTransaction(Supplier<R> work) {
+        return work.get();
+    }
+
+    /**
+     * Runs the work in a new transaction, suspending current transaction (if any)
+     */
+    @ActivateRequestContext
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public <R> R inNewTransaction(Supplier<R> work) {
+        return work.get();
+    }
+}
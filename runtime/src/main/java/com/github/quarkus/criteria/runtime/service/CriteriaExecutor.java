@@ -0,0 +1,156 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Bounded executor used by {@link CrudService} operations which run outside of the caller thread.
+ * <p>
+ * Each task runs in its own request context, so entities returned by tasks are detached.
+ * Pool size can be configured with <code>criteria.executor.max-threads</code> and <code>criteria.executor.queue-size</code>.
+ * <p>
+ * When <code>criteria.executor.virtual-threads</code> is enabled and the JDK supports virtual threads each task runs on its own
+ * virtual thread instead, pool size settings are then ignored and concurrency is only bounded by the datasource pool.
+ * Components which run on this executor guard their state with {@link java.util.concurrent.locks.ReentrantLock}s, unlike
+ * monitors they don't pin virtual threads.
+ */
+@ApplicationScoped
+public class CriteriaExecutor {
+
+    private static final Logger LOG = Logger.getLogger(CriteriaExecutor.class.getName());
+
+    @Inject
+    ContextualWork contextualWork;
+
+    @ConfigProperty(name = "criteria.executor.max-threads", defaultValue = "16")
+    int maxThreads;
+
+    @ConfigProperty(name = "criteria.executor.queue-size", defaultValue = "1000")
+    int queueSize;
+
+    @ConfigProperty(name = "criteria.executor.virtual-threads", defaultValue = "false")
+    boolean virtualThreads;
+
+    private final ThreadLocal<Boolean> runningTask = new ThreadLocal<>();
+    private boolean runningOnVirtualThreads;
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        executor = virtualThreads ? newVirtualThreadExecutor() : null;
+        runningOnVirtualThreads = executor != null;
+        if (executor == null) {
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory("criteria-executor"));
+            threadPool.allowCoreThreadTimeOut(true);
+            executor = threadPool;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("criteria-scheduler"));
+    }
+
+    /**
+     * Runs the work on the executor with an active request context
+     *
+     * @throws RejectedExecutionException if the executor queue is full
+     */
+    public <R> CompletableFuture<R> supplyAsync(Supplier<R> work) {
+        return CompletableFuture.supplyAsync(() -> runTask(() -> contextualWork.inRequestContext(work)), executor);
+    }
+
+    /**
+     * Runs the work on the executor in a new transaction
+     *
+     * @throws RejectedExecutionException if the executor queue is full
+     */
+    public <R> CompletableFuture<R> supplyAsyncInNewTransaction(Supplier<R> work) {
+        return CompletableFuture.supplyAsync(() -> runTask(() -> contextualWork.inNewTransaction(work)), executor);
+    }
+
+    /**
+     * Tasks which wait for other tasks of this executor should run that work inline instead, otherwise a full pool
+     * waits for queued tasks which never run.
+     *
+     * @return <code>true</code> if current thread is running a task of this executor
+     */
+    public boolean isRunningTask() {
+        return runningTask.get() != null;
+    }
+
+    /**
+     * @return <code>true</code> if tasks run on virtual threads, <code>false</code> if they run on the bounded pool
+     */
+    public boolean isRunningOnVirtualThreads() {
+        return runningOnVirtualThreads;
+    }
+
+    /**
+     * @return scheduler for time based triggers, it should only dispatch work to the executor
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warning(format("Criteria executor did not terminate, %d tasks were cancelled.", executor.shutdownNow().size()));
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <R> R runTask(Supplier<R> task) {
+        runningTask.set(Boolean.TRUE);
+        try {
+            return task.get();
+        } finally {
+            runningTask.remove();
+        }
+    }
+
+    /**
+     * Virtual threads are looked up reflectively so the extension still runs on JDKs without them
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.warning(format("Virtual threads are not supported on Java %s, criteria executor will use a thread pool.",
+                    System.getProperty("java.version")));
+            return null;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,22 +1,79 @@
 package com.github.quarkus.criteria.runtime.service;
 
+import com.github.quarkus.criteria.runtime.cache.EntityCaches;
+import com.github.quarkus.criteria.runtime.cache.NearCache;
+import com.github.quarkus.criteria.runtime.cache.NegativeCache;
 import com.github.quarkus.criteria.runtime.criteria.BaseCriteriaSupport;
+import com.github.quarkus.criteria.runtime.event.ChangeEventPublisher;
+import com.github.quarkus.criteria.runtime.event.EntityChangeEvent;
+import com.github.quarkus.criteria.runtime.jdbc.IdArrayParameter;
+import com.github.quarkus.criteria.runtime.jdbc.IdTempTable;
+import com.github.quarkus.criteria.runtime.jdbc.OutboxTable;
+import com.github.quarkus.criteria.runtime.jdbc.UpsertStatement;
+import com.github.quarkus.criteria.runtime.metrics.CrudMetrics;
+import com.github.quarkus.criteria.runtime.metrics.EntityMetrics;
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
 import com.github.quarkus.criteria.runtime.model.Filter;
+import com.github.quarkus.criteria.runtime.model.IdFilterStrategy;
+import com.github.quarkus.criteria.runtime.model.MissingIdPolicy;
+import com.github.quarkus.criteria.runtime.model.Page;
+import com.github.quarkus.criteria.runtime.model.QueryOptions;
+import com.github.quarkus.criteria.runtime.model.RetryPolicy;
+import com.github.quarkus.criteria.runtime.model.ScanProgress;
 import com.github.quarkus.criteria.runtime.model.MultiSort;
 import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
 import com.github.quarkus.criteria.runtime.model.SortType;
+import com.github.quarkus.criteria.runtime.util.CriteriaUtils;
 import org.apache.deltaspike.data.api.criteria.Criteria;
+import org.apache.deltaspike.data.impl.criteria.QueryCriteria;
+import org.hibernate.FlushMode;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.bytecode.spi.BytecodeEnhancementMetadata;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.EntityPersister;
 import org.jboss.logmanager.Level;
 import javax.enterprise.context.Dependent;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
 import javax.persistence.metamodel.*;
 import javax.transaction.Transactional;
 import java.io.Serializable;
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -34,7 +91,37 @@ import static java.lang.String.format;
 public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSupport<T> {
 
     private static final Logger LOG = Logger.getLogger(CrudService.class.getName());
-    private static final int DEFAULT_REMOVAL_BATCH_SIZE = 1000;
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_BATCH_LOADER_SIZE = 100;
+    private static final Duration DEFAULT_BATCH_LOADER_WINDOW = Duration.ofMillis(2);
+    private static final int DEFAULT_FIND_BY_IDS_CHUNK_SIZE = 512;
+    private static final int DEFAULT_SCAN_CHUNK_SIZE = 500;
+
+    @Inject
+    protected CriteriaExecutor criteriaExecutor;
+    @Inject
+    protected ContextualWork contextualWork;
+    @Inject
+    protected UnitOfWork unitOfWork;
+    @Inject
+    protected EntityCaches entityCaches;
+    @Inject
+    protected ChangeRecorder changeRecorder;
+    @Inject
+    protected SingleFlights singleFlights;
+    @Inject
+    protected WriteBehindBuffers writeBehindBuffers;
+    @Inject
+    protected EntityMetrics entityMetrics;
+    @Inject
+    protected BatchLoaders batchLoaders;
+    private int findByIdsChunkSize = DEFAULT_FIND_BY_IDS_CHUNK_SIZE;
+    private boolean parallelFindByIds;
+    private IdFilterStrategy idFilterStrategy = IdFilterStrategy.IN_LIST;
+    private Optional<IdArrayParameter<T>> idArrayParameter;
+    private Optional<IdTempTable<T>> idTempTable;
+    private final BatchOperations<T> batchOperations = new BatchOperations<>(this);
+    private RetryPolicy retryPolicy = new RetryPolicy();
 
     @Inject
     protected void CrudService(InjectionPoint ip) {
@@ -56,9 +143,193 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
         validateFilter(filter);
         Criteria<T, T> criteria = configPagination(filter);
         configSort(filter, criteria);
-        return criteria.createQuery()
+        final TypedQuery<T> query = applyOptions(criteria.createQuery(), filter.getQueryOptions())
                 .setFirstResult(filter.getFirst())
-                .setMaxResults(filter.getPageSize())
+                .setMaxResults(filter.getPageSize());
+        if (!isSingleFlight()) {
+            return query.getResultList();
+        }
+        final List<T> page = singleFlights.of(entityClass).execute(SingleFlight.fingerprint(query), () -> {
+            List<T> result = query.getResultList();
+            result.forEach(entityManager::detach);
+            return result;
+        });
+        return new ArrayList<>(page);
+    }
+
+    /**
+     * Runs the page and the count queries at the same time, each one on its own connection and read only transaction,
+     * so the latency is the one of the slowest query instead of their sum. As queries run on the {@link CriteriaExecutor}
+     * the page entities are detached and the queries don't see changes of the caller transaction.
+     *
+     * @param filter Contains pagination configuration
+     * @return the page based on pagination filter along with the total number of entities matching the filter
+     */
+    public Page<T> paginateWithTotal(Filter<T> filter) {
+        validateFilter(filter);
+        if (criteriaExecutor.isRunningTask()) {
+            return new Page<>(await(inNewTransaction(() -> readOnly(() -> paginate(filter)))),
+                    await(inNewTransaction(() -> readOnly(() -> count(filter)))), filter.getFirst(), filter.getPageSize());
+        }
+        final CompletableFuture<List<T>> page = criteriaExecutor.supplyAsyncInNewTransaction(() -> readOnly(() -> paginate(filter)));
+        final CompletableFuture<Long> total = criteriaExecutor.supplyAsyncInNewTransaction(() -> readOnly(() -> count(filter)));
+        return new Page<>(await(page), await(total), filter.getFirst(), filter.getPageSize());
+    }
+
+    /**
+     * Processes the entities matching the criteria in parallel, see {@link CrudService#processInParallel(Criteria, int, int, Consumer, Consumer)}.
+     * Chunks have 500 entities and progress is logged at debug level.
+     */
+    public long processInParallel(Criteria<T, T> criteria, int partitions, Consumer<List<T>> processor) {
+        return processInParallel(criteria, partitions, DEFAULT_SCAN_CHUNK_SIZE, processor,
+                progress -> LOG.log(Level.DEBUG, format("Processing entity %s: %s", entityClass.getName(), progress)));
+    }
+
+    /**
+     * Splits the entities matching the criteria into id ranges and processes each range on its own thread, connection and
+     * transaction of the {@link CriteriaExecutor}. Ranges are read in chunks with keyset pagination, changes made by the
+     * processor are flushed and the persistence context is cleared after each chunk. A failing range is rolled back
+     * and the first failure is rethrown once all ranges are done.
+     * <p>
+     * Only criteria restrictions are used (entities are read in primary key order), see {@link KeysetScanner}. When called from a task
+     * of the {@link CriteriaExecutor} (e.g. through {@link CrudService#async()}) ranges are processed one after another on the caller
+     * thread, as waiting for other tasks of the same bounded executor could deadlock.
+     *
+     * @param criteria         restrictions of entities to process
+     * @param partitions       number of ranges processed in parallel
+     * @param chunkSize        number of entities per chunk
+     * @param processor        called with each chunk of managed entities, it is called concurrently by different ranges
+     * @param progressListener called after each chunk and when a range completes, it is called concurrently by different ranges
+     * @return number of processed entities
+     */
+    public long processInParallel(Criteria<T, T> criteria, int partitions, int chunkSize, Consumer<List<T>> processor,
+                                  Consumer<ScanProgress> progressListener) {
+        final KeysetScanner<T> scanner = new KeysetScanner<>(getEntityManager(), entityClass,
+                getEntityManager().getMetamodel().entity(entityClass).getId(entityKey), criteria, chunkSize);
+        final long total = scanner.count();
+        final List<Comparable> boundaries = scanner.boundaries(partitions);
+        final int ranges = boundaries.size() - 1;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicInteger completedRanges = new AtomicInteger();
+        //a task of the executor waiting for other tasks could wait forever, so its ranges run one after another
+        final boolean inline = criteriaExecutor.isRunningTask();
+        final List<CompletableFuture<Long>> results = new ArrayList<>(ranges);
+        for (int i = 0; i < ranges; i++) {
+            final Comparable from = boundaries.get(i);
+            final Comparable to = boundaries.get(i + 1);
+            final Supplier<Long> range = () -> {
+                long count = 0;
+                Comparable last = null;
+                List<T> chunk;
+                while (!(chunk = scanner.nextChunk(last, from, to)).isEmpty()) {
+                    last = (Comparable) chunk.get(chunk.size() - 1).getId();
+                    processor.accept(chunk);
+                    getEntityManager().flush();
+                    getEntityManager().clear();
+                    count += chunk.size();
+                    progressListener.accept(new ScanProgress(processed.addAndGet(chunk.size()), total, completedRanges.get(), ranges));
+                }
+                progressListener.accept(new ScanProgress(processed.get(), total, completedRanges.incrementAndGet(), ranges));
+                return count;
+            };
+            results.add(inline ? inNewTransaction(range) : criteriaExecutor.supplyAsyncInNewTransaction(range));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).exceptionally(error -> null).join();
+        long processedEntities = 0;
+        for (CompletableFuture<Long> result : results) {
+            processedEntities += await(result);
+        }
+        return processedEntities;
+    }
+
+    /**
+     * Processes all entities matching the criteria in chunks, see {@link CrudService#processInChunks(Criteria, int, Serializable, Consumer, Consumer)}.
+     */
+    public long processInChunks(Criteria<T, T> criteria, int chunkSize, Consumer<List<T>> processor) {
+        return processInChunks(criteria, chunkSize, null, processor, checkpoint -> {
+        });
+    }
+
+    /**
+     * Reads the entities matching the criteria in primary key order with keyset pagination and calls the processor with
+     * each chunk in its own new transaction (the caller transaction, if any, is suspended). Changes made by the processor
+     * are committed and the persistence context is cleared after each chunk, so long jobs don't hold locks or grow the heap.
+     * <p>
+     * When a chunk fails its transaction is rolled back and the error is rethrown, previous chunks stay committed and the job
+     * can be resumed from the last checkpoint.
+     *
+     * @param criteria           restrictions of entities to process (only restrictions are used, see {@link KeysetScanner})
+     * @param chunkSize          number of entities per chunk (and transaction)
+     * @param resumeAfter        id of the last processed entity of a previous run, <code>null</code> to start from the beginning
+     * @param processor          called with each chunk of managed entities
+     * @param checkpointListener called with the id of the last entity of each chunk once the chunk is committed
+     * @return number of processed entities
+     */
+    public long processInChunks(Criteria<T, T> criteria, int chunkSize, Serializable resumeAfter, Consumer<List<T>> processor,
+                                Consumer<Serializable> checkpointListener) {
+        final KeysetScanner<T> scanner = new KeysetScanner<>(getEntityManager(), entityClass,
+                getEntityManager().getMetamodel().entity(entityClass).getId(entityKey), criteria, chunkSize);
+        Serializable checkpoint = resumeAfter;
+        long processed = 0;
+        while (true) {
+            final Comparable after = (Comparable) checkpoint;
+            final List<T> chunk = contextualWork.inNewTransaction(() -> {
+                List<T> entities = scanner.nextChunk(after, null, null);
+                if (!entities.isEmpty()) {
+                    processor.accept(entities);
+                    getEntityManager().flush();
+                    getEntityManager().clear();
+                }
+                return entities;
+            });
+            if (chunk.isEmpty()) {
+                return processed;
+            }
+            processed += chunk.size();
+            checkpoint = chunk.get(chunk.size() - 1).getId();
+            checkpointListener.accept(checkpoint);
+            LOG.log(Level.DEBUG, format("Processed %d entities of %s, checkpoint: %s", processed, entityClass.getName(), checkpoint));
+        }
+    }
+
+    /**
+     * Claims up to <code>max</code> entities matching the criteria, e.g. rows of a table used as a job queue, by locking them with
+     * <code>SELECT ... FOR UPDATE SKIP LOCKED</code>: rows locked by other transactions are skipped instead of waited for, so
+     * concurrent consumers get disjoint entities. Locks are held until the caller transaction ends, so a transaction is required.
+     * <p>
+     * Criteria restrictions and ordering (<code>orderAsc</code>, <code>orderDesc</code>) are used, joins and fetches are ignored. The
+     * primary key is always the last ordering so claims are deterministic. The criteria is not changed so it can be reused by each call.
+     * Avoid outer joins on the criteria, some databases (e.g. PostgreSQL) can't lock the nullable side of an outer join.
+     * <p>
+     * The <code>SKIP LOCKED</code> hint is silently ignored by dialects which don't support it (e.g. H2, MySQL before 8): locked
+     * rows are then waited for and concurrent consumers claim the same entities one after the other.
+     *
+     * @param criteria restrictions and ordering of entities to claim, it must be created by {@link CrudService#criteria()}
+     * @param max      max number of entities to claim
+     * @return the claimed entities, locked until the end of current transaction
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public List<T> claim(Criteria<T, T> criteria, int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("Max number of entities to claim should be greater than zero");
+        }
+        if (!(criteria instanceof QueryCriteria)) {
+            throw new IllegalArgumentException("Only DeltaSpike query criteria are supported.");
+        }
+        final SingularAttribute<? super T, Serializable> idAttribute = getEntityManager().getMetamodel().entity(entityClass).getId(entityKey);
+        final CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        final CriteriaQuery<T> query = cb.createQuery(entityClass);
+        final Root<T> root = query.from(entityClass);
+        query.select(root)
+                .where(criteria.predicates(cb, root).toArray(new Predicate[0]));
+        CriteriaUtils.applyOrdering((QueryCriteria<T, T>) criteria, query, cb, root);
+        final List<Order> orders = new ArrayList<>(query.getOrderList());
+        orders.add(cb.asc(root.get(idAttribute)));
+        query.orderBy(orders);
+        return getEntityManager().createQuery(query)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setHint("javax.persistence.lock.timeout", LockOptions.SKIP_LOCKED)
+                .setMaxResults(max)
                 .getResultList();
     }
 
@@ -70,7 +341,11 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
         beforeAll(entity);
         beforeInsert(entity);
         entityManager.persist(entity);
-        entityManager.flush();
+        if (!unitOfWork.isActive()) { //a unit of work flushes all changes at once
+            entityManager.flush();
+        }
+        clearNegativeCache();
+        recordChanges(ChangeRecord.Operation.INSERT, Collections.singletonList(entity), null);
         afterInsert(entity);
         afterAll(entity);
         return entity;
@@ -91,10 +366,12 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
         }
         beforeAll(entity);
         beforeDelete(entity);
+        evictFromNearCache(entity.getId());
         if (!entityManager.contains(entity)) {
             entity = entityManager.find(entityClass, entity.getId());
         }
         entityManager.remove(entity);
+        recordChanges(ChangeRecord.Operation.DELETE, Collections.singletonList(entity), null);
         afterDelete(entity);
         afterAll(entity);
     }
@@ -110,7 +387,7 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
     }
 
     /**
-     * Remove entities in batches
+     * Remove entities in batches, delete batch hooks are invoked once per batch
      *
      * @param entities
      * @param batchSize
@@ -118,35 +395,82 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
      */
     @Transactional
     public int deleteBatch(List<T> entities, Integer batchSize) {
-        if (batchSize == null || batchSize < 1) {
-            LOG.warning("Invalid batch size to remove entities, using default batch size: " + DEFAULT_REMOVAL_BATCH_SIZE);
-            batchSize = DEFAULT_REMOVAL_BATCH_SIZE;
+        return batchOperations.deleteBatch(entities, batchSize);
+    }
+
+    /**
+     * Inserts entities in batches: insert batch hooks are invoked once per batch, each batch is flushed with JDBC batching
+     * and then detached from the persistence context so large imports don't keep every entity in memory.
+     *
+     * @param entities  records to insert
+     * @param batchSize number of entities per batch
+     * @return the inserted entities
+     */
+    @Transactional
+    public List<T> insertBatch(List<T> entities, Integer batchSize) {
+        return batchOperations.insertBatch(entities, batchSize);
+    }
+
+    /**
+     * Updates entities in batches, see {@link CrudService#insertBatch(List, Integer)}. Update batch hooks receive the
+     * entities before the merge and the merged copies after the flush.
+     *
+     * @param entities  records to update
+     * @param batchSize number of entities per batch
+     * @return the updated entities
+     */
+    @Transactional
+    public List<T> updateBatch(List<T> entities, Integer batchSize) {
+        return batchOperations.updateBatch(entities, batchSize);
+    }
+
+    /**
+     * Finds entities by a (very large) set of primary keys with a single query: the ids are loaded with JDBC batches into a
+     * temporary table which is joined with the entity table. It only filters by id, criteria restrictions can't be combined with it.
+     * When the database doesn't support local temporary tables or the entity has a composite key or is not mapped to a
+     * single table it falls back to {@link CrudService#findByIds(Collection)}.
+     *
+     * @param ids primary keys of entities to find
+     * @return entities found with given ids in no particular order
+     */
+    @Transactional
+    public List<T> findByIdsUsingTempTable(Collection<? extends Serializable> ids) {
+        final Set<Serializable> distinctIds = distinctIds(ids);
+        if (distinctIds.isEmpty()) {
+            return new ArrayList<>();
         }
-        if (entities == null) {
-            throw new RuntimeException("Entities cannot be null");
+        final IdTempTable<T> tempTable = getIdTempTable();
+        if (tempTable == null) {
+            return findByIds(distinctIds);
+        }
+        return tempTable.select(getEntityManager(), distinctIds);
+    }
+
+    /**
+     * Removes entities by a (very large) set of primary keys with a single bulk delete joined with a temporary table of
+     * the ids, see {@link CrudService#findByIdsUsingTempTable(Collection)}. It is a native delete: delete hooks and entity
+     * callbacks are not invoked, cascades are not applied and deletes are neither recorded in the outbox nor published as change
+     * events. The near cache is evicted and the second level cache region of the entity is invalidated.
+     * When temporary tables are not supported ids are deleted in <code>IN</code> batches.
+     *
+     * @param ids primary keys of entities to delete
+     * @return number of deleted entities
+     */
+    @Transactional
+    public int deleteByIdsUsingTempTable(Collection<? extends Serializable> ids) {
+        final Set<Serializable> distinctIds = distinctIds(ids);
+        if (distinctIds.isEmpty()) {
+            return 0;
         }
+        evictAllFromNearCache(distinctIds);
+        final IdTempTable<T> tempTable = getIdTempTable();
+        if (tempTable != null) {
+            return tempTable.delete(getEntityManager(), distinctIds);
+        }
+        final List<Serializable> idList = new ArrayList<>(distinctIds);
         int removedEntitiesCount = 0;
-        final String idFieldName = getEntityManager().getMetamodel().entity(entityClass).getId(entityKey).getName();
-        final int total = entities.size();
-        final int batches = (int) Math.ceil((double)total / batchSize);
-        for (int i = 0; i < batches; i++) {
-            int currentBatch = i+1;
-            LOG.log(Level.DEBUG, "Removing batch: " + currentBatch);
-            int batchStart = batchSize * i;
-            int batchEnd = batchStart + batchSize;
-            if (batchEnd > total) {
-                batchEnd = total;
-            }
-            List<T> entitiesBatch = entities.subList(batchStart, batchEnd);
-            Set<Serializable> pks = collectEntitiesPk(entitiesBatch);
-            if(pks.size() == 0) {
-                LOG.warning(format("Skipping batch %d because no primary keys were found in entities to delete.", currentBatch));
-                continue;
-            }
-            final int entitiesDeleted = getEntityManager().createQuery("DELETE from " + entityClass.getSimpleName() + " e WHERE e." + idFieldName + " IN :ids")
-                    .setParameter("ids", pks).executeUpdate();
-            LOG.log(Level.DEBUG, format("Entities removed in batch %d: %d ", i, entitiesDeleted));
-            removedEntitiesCount += entitiesDeleted;
+        for (int i = 0; i < idList.size(); i += DEFAULT_BATCH_SIZE) {
+            removedEntitiesCount += deleteByIdsInList(idList.subList(i, Math.min(i + DEFAULT_BATCH_SIZE, idList.size())));
         }
         return removedEntitiesCount;
     }
@@ -161,8 +485,19 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
         }
         beforeAll(entity);
         beforeUpdate(entity);
+        final Serializable id = entity.getId();
+        evictFromNearCache(id);
         entity = entityManager.merge(entity);
-        entityManager.flush();
+        final List<String> changedAttributes = changedAttributes(entity);
+        if (!unitOfWork.isActive()) {
+            entityManager.flush();
+        }
+        if (!id.equals(entity.getId())) { //merge of a detached entity which was not found in database creates a new record
+            clearNegativeCache();
+            recordChanges(ChangeRecord.Operation.INSERT, Collections.singletonList(entity), null);
+        } else {
+            recordChanges(ChangeRecord.Operation.UPDATE, Collections.singletonList(entity), updated -> changedAttributes);
+        }
         afterUpdate(entity);
         afterAll(entity);
         return entity;
@@ -181,10 +516,232 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
         return entity;
     }
 
+    /**
+     * Runs the write in a new transaction, retrying it according to the service {@link RetryPolicy} when it fails because of
+     * concurrent changes. Each attempt commits on its own so it can't be part of the caller transaction.
+     *
+     * @param write the write operation, invoked once per attempt
+     * @return the write result
+     */
+    public <R> R retrying(Supplier<R> write) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return contextualWork.inNewTransaction(write);
+            } catch (RuntimeException e) {
+                final String counter = retryPolicy.retryCounterOf(e);
+                if (counter == null) {
+                    throw e;
+                }
+                getMetrics().increment(counter);
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    getMetrics().increment(CrudMetrics.RETRY_EXHAUSTED);
+                    throw e;
+                }
+                final Duration backoff = retryPolicy.backoff(attempt);
+                LOG.fine(format("Attempt %d of %s write failed (%s), retrying in %d ms.", attempt, entityClass.getName(), counter, backoff.toMillis()));
+                try {
+                    Thread.sleep(backoff.toMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the entity retrying on concurrent changes, see {@link CrudService#retrying(Supplier)}. After a failed attempt
+     * the record is read again and the merge function decides what to save from the current record and the attempted entity.
+     *
+     * @param entity the record to update
+     * @param merge  receives the current record (<code>null</code> when it was removed) and the entity of the failed attempt,
+     *               returns the entity to save in next attempt or <code>null</code> to give up
+     * @return the updated entity or <code>null</code> if the merge function gave up
+     */
+    public T updateWithRetry(T entity, BiFunction<T, T, T> merge) {
+        if (merge == null) {
+            throw new RuntimeException("Merge function cannot be null");
+        }
+        final AtomicReference<T> attempt = new AtomicReference<>(entity);
+        final AtomicInteger attempts = new AtomicInteger();
+        return retrying(() -> {
+            if (attempts.getAndIncrement() > 0) {
+                final T current = entityManager.find(entityClass, attempt.get().getId());
+                if (current != null) {
+                    entityManager.detach(current);
+                }
+                final T merged = merge.apply(current, attempt.get());
+                if (merged == null) {
+                    return null;
+                }
+                attempt.set(merged);
+            }
+            return update(attempt.get());
+        });
+    }
+
+    /**
+     * @param retryPolicy retry settings used by {@link CrudService#retrying(Supplier)} and <code>updateWithRetry</code>
+     * @return this service
+     */
+    public CrudService<T> useRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("Retry policy cannot be null");
+        }
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Updates only the given attributes of a record with a single <code>UPDATE</code> statement, no previous read and no full row write.
+     * When the values contain the entity version it is used as the expected version of the row, in any case the version is incremented:
+     * numeric versions are incremented by the statement and timestamp versions are set to the current time of the version type.
+     * Hooks are not invoked and managed instances of the record are detached from the persistence context.
+     *
+     * @param id     primary key of the record to patch
+     * @param values new values of the attributes to update
+     * @return number of updated rows, zero when the record was not found
+     * @throws OptimisticLockException when the expected version doesn't match
+     */
+    @Transactional
+    public int patch(Serializable id, Map<SingularAttribute<? super T, ?>, Object> values) {
+        return patch(id, values, null);
+    }
+
+    /**
+     * @param nextVersion the new value of a non numeric version, <code>null</code> to seed it from the version type
+     */
+    private int patch(Serializable id, Map<SingularAttribute<? super T, ?>, Object> values, Object nextVersion) {
+        if (id == null) {
+            throw new RuntimeException("Record cannot be transient");
+        }
+        if (values == null || values.isEmpty()) {
+            throw new RuntimeException("Attributes to patch cannot be empty");
+        }
+        final SingularAttribute<? super T, ?> versionAttribute = getVersionAttribute();
+        final Map<SingularAttribute<? super T, ?>, Object> changes = new LinkedHashMap<>(values);
+        final boolean checkVersion = versionAttribute != null && changes.containsKey(versionAttribute);
+        final Object expectedVersion = checkVersion ? changes.remove(versionAttribute) : null;
+        if (changes.isEmpty()) {
+            throw new RuntimeException("Attributes to patch cannot be empty");
+        }
+        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        final CriteriaUpdate<T> update = cb.createCriteriaUpdate(entityClass);
+        final Root<T> root = update.from(entityClass);
+        for (Map.Entry<SingularAttribute<? super T, ?>, Object> change : changes.entrySet()) {
+            if (change.getKey().isId()) {
+                throw new RuntimeException(format("Primary key of entity %s cannot be patched.", entityClass.getName()));
+            }
+            update.set((SingularAttribute) change.getKey(), change.getValue());
+        }
+        if (versionAttribute != null && isNumericVersion(versionAttribute)) {
+            final Path<Number> version = root.get((SingularAttribute) versionAttribute);
+            update.set(version, cb.sum(version, 1));
+        } else if (versionAttribute != null) {
+            final SharedSessionContractImplementor session = getEntityManager().unwrap(SharedSessionContractImplementor.class);
+            update.set((SingularAttribute) versionAttribute, nextVersion != null ? nextVersion
+                    : session.getFactory().getMetamodel().entityPersister(entityClass).getVersionType().seed(session));
+        }
+        Predicate restriction = cb.equal(root.get(getEntityManager().getMetamodel().entity(entityClass).getId(entityKey)), id);
+        if (checkVersion) {
+            restriction = cb.and(restriction, expectedVersion == null ? root.get(versionAttribute).isNull() : cb.equal(root.get(versionAttribute), expectedVersion));
+        }
+        update.where(restriction);
+        detachFromPersistenceContext(id);
+        evictFromNearCache(id);
+        final int rows = entityManager.createQuery(update).executeUpdate();
+        if (rows == 0 && checkVersion) {
+            throw new OptimisticLockException(format("Record of entity %s with id %s and version %s was not found.", entityClass.getName(), id, expectedVersion));
+        }
+        if (rows == 0 || !changeRecorder.isRecording(entityClass)) {
+            return rows;
+        }
+        changeRecorder.recordUpdate(getEntityManager(), entityClass, id, versionAttribute != null ? readVersion(id) : null,
+                changes.keySet().stream().map(Attribute::getName).collect(Collectors.toList()));
+        return rows;
+    }
+
+    /**
+     * Updates only the given attributes of the entity, see {@link CrudService#patch(Serializable, Map)}. The entity version, when present,
+     * is checked against the row and set on the entity to the value written in the row so it can be patched again.
+     *
+     * @param entity     the record with the new attribute values
+     * @param attributes attributes to update
+     * @return number of updated rows
+     * @throws OptimisticLockException when the record was changed or removed since the entity version was read
+     */
+    @Transactional
+    public int patch(T entity, SingularAttribute<? super T, ?>... attributes) {
+        if (entity == null) {
+            throw new RuntimeException("Record cannot be null");
+        }
+        final Map<SingularAttribute<? super T, ?>, Object> values = new LinkedHashMap<>();
+        for (SingularAttribute<? super T, ?> attribute : attributes) {
+            values.put(attribute, getAttributeValue(attribute, entity));
+        }
+        final SingularAttribute<? super T, ?> versionAttribute = getVersionAttribute();
+        final Object version = versionAttribute != null ? getAttributeValue(versionAttribute, entity) : null;
+        if (version != null) {
+            values.put(versionAttribute, version);
+        }
+        final SharedSessionContractImplementor session = getEntityManager().unwrap(SharedSessionContractImplementor.class);
+        final EntityPersister persister = session.getFactory().getMetamodel().entityPersister(entityClass);
+        final Object nextVersion = version != null ? persister.getVersionType().next(version, session) : null;
+        final int rows = patch((Serializable) entity.getId(), values, nextVersion);
+        if (nextVersion != null) {
+            persister.setPropertyValue(entity, persister.getVersionProperty(), nextVersion);
+        }
+        return rows;
+    }
+
+    /**
+     * Inserts the entity or updates the existing row matching the conflict target with a single native statement, see {@link UpsertStatement}.
+     * Hooks are not invoked and cascades are not applied. As the statement doesn't tell whether the row was inserted or updated, nor its
+     * id and version, upserts are neither recorded in the outbox nor published as change events.
+     * <p>
+     * <b>Optimistic locking is bypassed:</b> the version of the entity is not compared with the row, a matched row is overwritten even
+     * when it was changed concurrently and its version is incremented. Use <code>update</code> or <code>patch</code> when concurrent
+     * changes must be detected. On MySQL rows are matched by any unique key, so <code>conflictTarget</code> must be empty.
+     *
+     * @param entity         the record to write
+     * @param conflictTarget attributes which identify an existing row, they must be covered by an unique constraint. Defaults to the primary key.
+     * @return number of written rows
+     */
+    @Transactional
+    public int upsert(T entity, SingularAttribute<? super T, ?>... conflictTarget) {
+        if (entity == null) {
+            throw new RuntimeException("Record cannot be null");
+        }
+        return upsertBatch(Collections.singletonList(entity), conflictTarget);
+    }
+
+    /**
+     * Upserts the entities using JDBC batches, each entity costs one statement without a previous read.
+     * Entities are not attached to the persistence context, managed instances of the upserted rows are not refreshed.
+     * As in {@link CrudService#upsert(PersistenceEntity, SingularAttribute[])} optimistic locking is bypassed.
+     *
+     * @param entities       records to write
+     * @param conflictTarget attributes which identify an existing row, they must be covered by an unique constraint. Defaults to the primary key.
+     * @return number of written rows
+     * @throws IllegalArgumentException if a conflict target is given on MySQL
+     */
+    @Transactional
+    public int upsertBatch(Collection<T> entities, SingularAttribute<? super T, ?>... conflictTarget) {
+        return batchOperations.upsertBatch(entities, conflictTarget);
+    }
+
     public List<T> list() {
         return criteria().getResultList();
     }
 
+    /**
+     * @param queryOptions lock mode and hints of the query
+     * @return all entities
+     */
+    public List<T> list(QueryOptions queryOptions) {
+        return applyOptions(criteria().createQuery(), queryOptions).getResultList();
+    }
+
     /**
      * Count all
      */
@@ -199,7 +756,7 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
      * @return
      */
     public Long count(Filter<T> filter) {
-        return count(configPagination(filter));
+        return count(configPagination(filter), filter.getQueryOptions());
     }
 
     /**
@@ -209,19 +766,466 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
      * @return
      */
     public Long count(Criteria<T, T> criteria) {
+        return count(criteria, null);
+    }
+
+    /**
+     * Count using a pre populated criteria
+     *
+     * @param criteria     restrictions of counted entities
+     * @param queryOptions hints of the query, lock mode is ignored as aggregates can't be locked
+     * @return number of entities matching the criteria
+     */
+    public Long count(Criteria<T, T> criteria, QueryOptions queryOptions) {
         SingularAttribute<? super T, Serializable> id = getEntityManager().getMetamodel().entity(entityClass).getId(entityKey);
-        return criteria.select(Long.class, countDistinct(id))
-                .getSingleResult();
+        final TypedQuery<Long> query = applyOptions(criteria.select(Long.class, countDistinct(id)).createQuery(),
+                queryOptions != null ? queryOptions.withoutLock() : null);
+        if (!isSingleFlight()) {
+            return query.getSingleResult();
+        }
+        return singleFlights.of(entityClass).execute(SingleFlight.fingerprint(query), query::getSingleResult);
     }
 
+    /**
+     * Finds an entity by its primary key. When the near cache is enabled for the entity and the call is not part of a transaction
+     * a detached copy of the cached snapshot is returned, see {@link CrudService#enableNearCache(int, Duration, boolean)}.
+     * <p>
+     * Misses are counted in {@link CrudMetrics#FIND_BY_ID_MISS} and logged at most once every 10 seconds per entity.
+     *
+     * @param id the entity primary key
+     * @return the entity or <code>null</code> if there is no entity with given id
+     */
     public T findById(Serializable id) {
-        T entity = entityManager.find(entityClass, id);
+        //caches are keyed by the entity id type, e.g. a Long id finds the entry of an Integer key
+        final Serializable key = toEntityKey(id);
+        final NegativeCache negativeCache = entityCaches.negativeCache(entityClass);
+        if (negativeCache != null && negativeCache.isMissing(key)) {
+            getMetrics().increment(CrudMetrics.NEGATIVE_CACHE_HIT);
+            onMiss(id);
+            return null;
+        }
+        //only committed state goes to caches and inside a transaction the entity must be managed so its changes are flushed
+        final boolean cacheable = !entityManager.isJoinedToTransaction();
+        final NearCache<T> nearCache = entityCaches.nearCache(entityClass);
+        if (nearCache != null && cacheable) {
+            T cached = findInNearCache(nearCache, key);
+            if (cached != null) {
+                getMetrics().increment(CrudMetrics.NEAR_CACHE_HIT);
+                return cached;
+            }
+        }
+        //taken before the read so a snapshot read before a concurrent commit is not cached once the commit evicted it
+        final long generation = nearCache != null ? nearCache.generation(key) : 0;
+        T entity = entityManager.find(entityClass, key);
         if (entity == null) {
-            LOG.warning(format("Record with id %s not found for entity %s.", id, entityClass.getName()));
+            if (cacheable && negativeCache != null) {
+                negativeCache.put(key);
+            }
+            onMiss(id);
+        } else if (nearCache != null && cacheable) {
+            nearCache.put(entity.getId(), entity, getVersion(entity), generation);
+        } else if (nearCache != null) { //the managed entity can still be changed by dirty checking
+            entityCaches.evictAfterCompletion(entityClass, Collections.singleton(entity.getId()));
         }
         return entity;
     }
 
+    /**
+     * @param ids primary keys of entities to find
+     * @return entities found with given ids in the same order as the ids, missing ids are skipped
+     * @see CrudService#findByIds(Collection, MissingIdPolicy)
+     */
+    public List<T> findByIds(Collection<? extends Serializable> ids) {
+        return findByIds(ids, MissingIdPolicy.SKIP);
+    }
+
+    /**
+     * Finds entities by their primary keys using chunked <code>IN</code> queries. Each chunk is padded (by repeating its last id)
+     * to the next power of two so only a handful of distinct SQL statements are generated no matter how many ids are given.
+     * <p>
+     * Chunks can run in parallel (see {@link CrudService#configureFindByIds(int, boolean)}) when the call is not part of a
+     * transaction, in this case the entities are loaded in their own persistence contexts and returned detached.
+     *
+     * @param ids             primary keys of entities to find, <code>null</code> ids are ignored
+     * @param missingIdPolicy what to do with ids which have no matching entity
+     * @return entities found with given ids in the same order as the ids
+     */
+    public List<T> findByIds(Collection<? extends Serializable> ids, MissingIdPolicy missingIdPolicy) {
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final List<Serializable> distinctIds = ids.stream()
+                .filter(Objects::nonNull)
+                .map(this::toEntityKey)
+                .distinct()
+                .collect(Collectors.toList());
+        final List<List<Serializable>> chunks = new ArrayList<>();
+        if (getIdArrayParameter() != null) {
+            //a single array parameter keeps the statement constant so there is no need to chunk
+            chunks.add(distinctIds);
+        } else {
+            for (int i = 0; i < distinctIds.size(); i += findByIdsChunkSize) {
+                chunks.add(padToPowerOfTwo(distinctIds.subList(i, Math.min(i + findByIdsChunkSize, distinctIds.size()))));
+            }
+        }
+        final Map<Serializable, T> entitiesById = new HashMap<>(distinctIds.size());
+        if (parallelFindByIds && chunks.size() > 1 && !entityManager.isJoinedToTransaction() && !criteriaExecutor.isRunningTask()) {
+            List<CompletableFuture<List<T>>> results = chunks.stream()
+                    .map(chunk -> criteriaExecutor.supplyAsync(() -> listByIds(chunk)))
+                    .collect(Collectors.toList());
+            results.forEach(result -> await(result).forEach(entity -> entitiesById.put(entity.getId(), entity)));
+        } else {
+            chunks.forEach(chunk -> listByIds(chunk).forEach(entity -> entitiesById.put(entity.getId(), entity)));
+        }
+        final List<T> result = new ArrayList<>(ids.size());
+        final List<Serializable> missingIds = new ArrayList<>();
+        for (Serializable id : ids) {
+            T entity = id != null ? entitiesById.get(toEntityKey(id)) : null;
+            if (entity != null) {
+                result.add(entity);
+                continue;
+            }
+            missingIds.add(id);
+            if (missingIdPolicy == MissingIdPolicy.NULL) {
+                result.add(null);
+            }
+        }
+        if (!missingIds.isEmpty() && missingIdPolicy == MissingIdPolicy.FAIL) {
+            throw new RuntimeException(format("Records with ids %s not found for entity %s.", missingIds, entityClass.getName()));
+        }
+        return result;
+    }
+
+    /**
+     * Configures how {@link CrudService#findByIds(Collection, MissingIdPolicy)} splits the ids. By default chunks of 512 ids
+     * are queried sequentially.
+     *
+     * @param chunkSize max number of ids per query, rounded up to a power of two
+     * @param parallel  if <code>true</code> chunks of calls outside a transaction run in parallel on the {@link CriteriaExecutor}
+     * @return this service
+     */
+    public CrudService<T> configureFindByIds(int chunkSize, boolean parallel) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size should be greater than zero");
+        }
+        this.findByIdsChunkSize = nextPowerOfTwo(chunkSize);
+        this.parallelFindByIds = parallel;
+        return this;
+    }
+
+    /**
+     * Checks uniqueness of the key attributes of many candidates with a single query per chunk of <code>findByIds</code> chunk size,
+     * candidates which repeat the key of a previous candidate are detected in memory.
+     * Candidates with a <code>null</code> key attribute are not checked, like in database unique constraints.
+     * <p>
+     * Ignoring case, existing records are searched with <code>lower()</code> applied by the database to both the column and the candidate
+     * value, candidates are compared to each other and to the records found using {@link String#toLowerCase(Locale)} with {@link Locale#ROOT}.
+     * <p>
+     * Inside a {@link UnitOfWork} records queued by the unit are not flushed, so they are not found.
+     *
+     * @param candidates entities to validate, persisted ones don't conflict with their own record
+     * @param ignoreCase if <code>true</code> string attributes are compared ignoring case
+     * @param key        basic attributes which together must be unique
+     * @return candidates which conflict with an existing record or with a previous candidate, in candidates order
+     */
+    public List<T> findUniqueConflicts(Collection<T> candidates, boolean ignoreCase, SingularAttribute<? super T, ?>... key) {
+        if (key == null || key.length == 0) {
+            throw new RuntimeException("Unique key attributes cannot be empty");
+        }
+        if (candidates == null || candidates.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final Map<T, List<Object>> candidateKeys = new IdentityHashMap<>(); //new entities may be equal to each other
+        final Map<List<Object>, List<Object>> keys = new LinkedHashMap<>(); //normalized key -> key values as given
+        final Set<T> conflicts = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (T candidate : candidates) {
+            final List<Object> values = new ArrayList<>(key.length);
+            final List<Object> candidateKey = new ArrayList<>(key.length);
+            for (SingularAttribute<? super T, ?> attribute : key) {
+                final Object value = getAttributeValue(attribute, candidate);
+                values.add(value);
+                candidateKey.add(normalizeKeyValue(value, ignoreCase));
+            }
+            if (candidateKey.contains(null)) {
+                continue;
+            }
+            if (keys.putIfAbsent(candidateKey, values) != null) {
+                conflicts.add(candidate);
+            }
+            candidateKeys.put(candidate, candidateKey);
+        }
+        final List<List<Object>> distinctKeys = new ArrayList<>(keys.values());
+        final Map<List<Object>, Set<Object>> existingIds = new HashMap<>();
+        for (int i = 0; i < distinctKeys.size(); i += findByIdsChunkSize) {
+            findKeys(distinctKeys.subList(i, Math.min(i + findByIdsChunkSize, distinctKeys.size())), ignoreCase, key)
+                    .forEach(tuple -> {
+                        final List<Object> existingKey = new ArrayList<>(key.length);
+                        for (int k = 0; k < key.length; k++) {
+                            existingKey.add(normalizeKeyValue(tuple.get(k + 1), ignoreCase));
+                        }
+                        existingIds.computeIfAbsent(existingKey, k -> new HashSet<>()).add(tuple.get(0));
+                    });
+        }
+        candidateKeys.forEach((candidate, candidateKey) -> {
+            final Set<Object> ids = existingIds.getOrDefault(candidateKey, Collections.emptySet());
+            if (!ids.isEmpty() && !(ids.size() == 1 && ids.contains(candidate.getId()))) {
+                conflicts.add(candidate);
+            }
+        });
+        return candidates.stream()
+                .filter(conflicts::contains)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Configures how <code>findByIds</code>, <code>loadById</code> and <code>deleteBatch</code> restrict statements by primary keys.
+     * With {@link IdFilterStrategy#ARRAY_PARAMETER} all ids are bound as a single array parameter (<code>id = ANY(?)</code>) so the
+     * SQL text stays the same whatever the number of ids, it falls back to <code>IN</code> lists on databases other than PostgreSQL.
+     *
+     * @param idFilterStrategy the strategy, {@link IdFilterStrategy#IN_LIST} by default
+     * @return this service
+     */
+    public CrudService<T> useIdFilterStrategy(IdFilterStrategy idFilterStrategy) {
+        this.idFilterStrategy = Objects.requireNonNull(idFilterStrategy, "Id filter strategy should be provided");
+        this.idArrayParameter = null;
+        return this;
+    }
+
+    /**
+     * Finds an entity by its primary key with given lock mode, lock timeout (<code>timeout</code> option) and read only
+     * options, other options don't apply to lookups by id. Near and negative caches are bypassed.
+     *
+     * @param id           the entity primary key
+     * @param queryOptions lock mode and hints of the lookup, <code>null</code> is the same as {@link CrudService#findById(Serializable)}
+     * @return the entity or <code>null</code> if there is no entity with given id
+     */
+    public T findById(Serializable id, QueryOptions queryOptions) {
+        if (queryOptions == null) {
+            return findById(id);
+        }
+        final Map<String, Object> properties = new HashMap<>();
+        if (queryOptions.getTimeout() != null) {
+            properties.put("javax.persistence.lock.timeout", queryOptions.getTimeout());
+        }
+        final T entity = queryOptions.getLockMode() != null ? entityManager.find(entityClass, id, queryOptions.getLockMode(), properties)
+                : entityManager.find(entityClass, id, properties);
+        if (entity == null) {
+            onMiss(id);
+        } else if (Boolean.TRUE.equals(queryOptions.getReadOnly())) {
+            entityManager.unwrap(Session.class).setReadOnly(entity, true);
+        }
+        return entity;
+    }
+
+    /**
+     * Records a {@link ChangeRecord} of every insert, update and delete of the entity made through a CrudService in an outbox table,
+     * in the same transaction as the change. The table is never created by the service, create it with the DDL of the README. Records are consumed by {@link OutboxRelay}.
+     * Upserts and temporary table deletes are not recorded, their statements don't tell which rows were inserted, updated or deleted.
+     *
+     * @return this service
+     */
+    public CrudService<T> enableOutbox() {
+        return enableOutbox(OutboxTable.DEFAULT_TABLE_NAME);
+    }
+
+    /**
+     * @param tableName the outbox table, it can be shared by many entities
+     * @return this service
+     * @throws RuntimeException when the outbox table doesn't exist
+     */
+    public CrudService<T> enableOutbox(String tableName) {
+        changeRecorder.enableOutbox(entityClass, contextualWork.inNewTransaction(() -> OutboxTable.verified(getEntityManager(), tableName)));
+        return this;
+    }
+
+    public void disableOutbox() {
+        changeRecorder.disableOutbox(entityClass);
+    }
+
+    /**
+     * Fires an {@link EntityChangeEvent} qualified with {@link com.github.quarkus.criteria.runtime.event.ChangedEntity} for every insert,
+     * update and delete of the entity made through a CrudService. Events are fired asynchronously after the transaction commits and
+     * coalesced per record, see {@link ChangeEventPublisher}. Upserts and temporary table deletes don't fire events.
+     *
+     * @return this service
+     */
+    public CrudService<T> enableChangeEvents() {
+        changeRecorder.enableChangeEvents(entityClass);
+        return this;
+    }
+
+    public void disableChangeEvents() {
+        changeRecorder.disableChangeEvents(entityClass);
+    }
+
+    /**
+     * Enables a near cache of detached snapshots in front of {@link CrudService#findById(Serializable)}.
+     * The cache is shared by all services of the entity and its entries are evicted by <code>update</code>, <code>delete</code>
+     * and <code>deleteBatch</code> operations, again once their transaction completes. Lookups inside a transaction skip the cache
+     * so they get managed entities, which are evicted when the transaction completes. Entities changed without using a CrudService (e.g. bulk JPQL or other applications)
+     * will only be noticed when <code>validateVersion</code> is enabled or when the entry expires.
+     *
+     * @param maxEntries      max number of cached entities
+     * @param ttl             time to live of cached entities
+     * @param validateVersion if <code>true</code> each cache hit will be validated with a <code>@Version</code> only query, when entity has no version attribute this flag is ignored
+     * @return this service
+     */
+    public CrudService<T> enableNearCache(int maxEntries, Duration ttl, boolean validateVersion) {
+        final BytecodeEnhancementMetadata enhancementMetadata = getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactoryImplementor.class)
+                .getMetamodel()
+                .entityPersister(entityClass)
+                .getEntityMetamodel()
+                .getBytecodeEnhancementMetadata();
+        entityCaches.enableNearCache(entityClass, maxEntries, ttl, validateVersion && getVersionAttribute() != null, enhancementMetadata);
+        return this;
+    }
+
+    public void disableNearCache() {
+        entityCaches.disableNearCache(entityClass);
+    }
+
+    /**
+     * Enables a short lived cache of ids not found by {@link CrudService#findById(Serializable)} so repeated lookups
+     * of missing records don't hit the database. The cache is shared by all services of the entity and is cleared
+     * whenever a record of the entity is inserted through a CrudService, again once the insert commits.
+     *
+     * @param maxEntries max number of missing ids to remember
+     * @param ttl        time to live of missing ids
+     * @return this service
+     */
+    public CrudService<T> enableNegativeCache(int maxEntries, Duration ttl) {
+        entityCaches.enableNegativeCache(entityClass, maxEntries, ttl);
+        return this;
+    }
+
+    public void disableNegativeCache() {
+        entityCaches.disableNegativeCache(entityClass);
+    }
+
+    /**
+     * Loads an entity through a coalescing loader: lookups issued by concurrent callers within a short window are
+     * resolved with a single <code>IN</code> query on the {@link CriteriaExecutor}. The entity is loaded in its own persistence
+     * context so it is detached when the stage completes.
+     *
+     * @param id the entity primary key
+     * @return a stage completed with the entity or <code>null</code> if there is no entity with given id
+     * @see CrudService#enableBatchLoading(int, Duration)
+     */
+    public CompletionStage<T> loadById(Serializable id) {
+        return getBatchLoader().load(id);
+    }
+
+    /**
+     * Configures the loader used by {@link CrudService#loadById(Serializable)}. By default up to 100 ids are collected
+     * during 2 milliseconds. The loader is shared by all services of the entity so their lookups are coalesced, enabling it
+     * again replaces the previous loader after dispatching its pending lookups.
+     *
+     * @param maxBatchSize max number of ids resolved by a single query
+     * @param window       max time a lookup waits for other lookups
+     * @return this service
+     */
+    public CrudService<T> enableBatchLoading(int maxBatchSize, Duration window) {
+        batchLoaders.enable(entityClass, newBatchLoader(maxBatchSize, window));
+        return this;
+    }
+
+    /**
+     * Enables write behind inserts, see {@link CrudService#insertBehind(PersistenceEntity)}. Buffered entities are inserted with
+     * {@link CrudService#insertBatch(List, Integer)} on the {@link CriteriaExecutor}, one transaction per batch, when <code>batchSize</code>
+     * entities are pending or <code>maxDelay</code> elapses. The buffer is shared by all services of the entity, enabling it again
+     * replaces the previous buffer after writing its pending inserts.
+     *
+     * @param capacity  max number of pending inserts, callers block while the buffer is full
+     * @param batchSize max number of entities inserted per transaction
+     * @param maxDelay  max time an insert stays pending
+     * @return this service
+     */
+    public CrudService<T> enableWriteBehind(int capacity, int batchSize, Duration maxDelay) {
+        writeBehindBuffers.enable(new WriteBehindBuffer<>(entityClass, batch -> contextualWork.inNewTransaction(() -> {
+            try {
+                getMetrics().increment(CrudMetrics.WRITE_BEHIND_BATCH);
+                return insertBatch(batch, batch.size());
+            } catch (RuntimeException e) {
+                getMetrics().increment(CrudMetrics.WRITE_BEHIND_FAILURE);
+                throw e;
+            }
+        }), criteriaExecutor, capacity, batchSize, maxDelay));
+        return this;
+    }
+
+    /**
+     * Disables write behind inserts, pending inserts are written before the returned stage completes
+     */
+    public CompletionStage<Void> disableWriteBehind() {
+        return writeBehindBuffers.disable(entityClass);
+    }
+
+    /**
+     * Buffers the insert, it is written later in a batch with other inserts, outside of the caller transaction. Entities are validated
+     * by insert batch hooks when their batch is written and a failure fails the whole batch. Pending inserts are written on shutdown.
+     *
+     * @param entity the record to insert
+     * @return a stage completed with the entity once its batch is committed
+     * @throws IllegalStateException if write behind is not enabled
+     * @see CrudService#enableWriteBehind(int, int, Duration)
+     */
+    public CompletionStage<T> insertBehind(T entity) {
+        final WriteBehindBuffer<T> buffer = writeBehindBuffers.of(entityClass);
+        if (buffer == null) {
+            throw new IllegalStateException(format("Write behind is not enabled for entity %s.", entityClass.getName()));
+        }
+        return buffer.insert(entity);
+    }
+
+    /**
+     * Writes pending write behind inserts without waiting for the delay
+     *
+     * @return a stage completed when inserts buffered at the time of the call are written
+     */
+    public CompletionStage<Void> flushWriteBehind() {
+        final WriteBehindBuffer<T> buffer = writeBehindBuffers.of(entityClass);
+        return buffer != null ? buffer.flush() : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Enables single flight mode for <code>paginate</code> and <code>count</code>: concurrent calls which generate the same
+     * query share a single database execution. Only calls outside of a transaction are deduplicated and, in this mode,
+     * <code>paginate</code> returns detached entities which may be shared with other callers so they should be treated as read only.
+     * The mode is shared by all services of the entity.
+     *
+     * @return this service
+     */
+    public CrudService<T> enableSingleFlight() {
+        singleFlights.enable(entityClass);
+        return this;
+    }
+
+    public void disableSingleFlight() {
+        singleFlights.disable(entityClass);
+    }
+
+    /**
+     * @return an asynchronous facade of this service which runs operations on the {@link CriteriaExecutor}
+     */
+    public AsyncCrudService<T> async() {
+        return new AsyncCrudService<>(this, criteriaExecutor);
+    }
+
+    /**
+     * @return a bulk facade of this service which reads and writes through a stateless session, without persistence context
+     */
+    public BulkCrudService<T> bulk() {
+        return new BulkCrudService<>(this, contextualWork);
+    }
+
+    /**
+     * @return operation counters of the entity, shared by all services of the entity
+     */
+    public CrudMetrics getMetrics() {
+        return entityMetrics.of(entityClass);
+    }
+
     public void setEntityManager(EntityManager entityManager) {
         this.entityManager = entityManager;
     }
@@ -251,6 +1255,48 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
     public void afterAll(T entity) {
     }
 
+    /**
+     * Invoked once per batch by {@link CrudService#insertBatch(List, Integer)}, override it to validate the whole batch at once.
+     * By default invokes <code>beforeAll</code> and <code>beforeInsert</code> for each entity.
+     */
+    public void beforeInsertBatch(List<T> entities) {
+        entities.forEach(entity -> {
+            beforeAll(entity);
+            beforeInsert(entity);
+        });
+    }
+
+    public void afterInsertBatch(List<T> entities) {
+        entities.forEach(entity -> {
+            afterInsert(entity);
+            afterAll(entity);
+        });
+    }
+
+    public void beforeUpdateBatch(List<T> entities) {
+        entities.forEach(entity -> {
+            beforeAll(entity);
+            beforeUpdate(entity);
+        });
+    }
+
+    public void afterUpdateBatch(List<T> entities) {
+        entities.forEach(entity -> {
+            afterUpdate(entity);
+            afterAll(entity);
+        });
+    }
+
+    /**
+     * Invoked once per batch by {@link CrudService#deleteBatch(List, Integer)} before its bulk delete. Unlike the insert and update
+     * batch hooks it does nothing by default: <code>deleteBatch</code> never invoked the per entity delete hooks.
+     */
+    public void beforeDeleteBatch(List<T> entities) {
+    }
+
+    public void afterDeleteBatch(List<T> entities) {
+    }
+
     protected void configSort(Filter<T> filter, Criteria<T, T> criteria) {
         if (!filter.getMultiSort().isEmpty()) { //multi sort
             for (MultiSort multiSort : filter.getMultiSort()) {
@@ -292,7 +1338,343 @@ public class CrudService<T extends PersistenceEntity> extends BaseCriteriaSuppor
         }
     }
 
-    private Set<Serializable> collectEntitiesPk(List<T> entities) {
+    private T findInNearCache(NearCache<T> nearCache, Serializable id) {
+        final NearCache<T>.Entry entry = nearCache.lookup(id);
+        if (entry == null) {
+            return null;
+        }
+        if (nearCache.isValidateVersion()) {
+            if (!Objects.equals(entry.getVersion(), readVersion(id))) {
+                LOG.log(Level.DEBUG, format("Evicting stale near cache entry with id %s of entity %s.", id, entityClass.getName()));
+                nearCache.evict(id);
+                return null;
+            }
+        }
+        return entry.copy();
+    }
+
+    /**
+     * @param ids primary keys of entities to list
+     * @return entities found with given ids in no particular order
+     */
+    protected List<T> listByIds(Collection<? extends Serializable> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final IdArrayParameter<T> arrayParameter = getIdArrayParameter();
+        if (arrayParameter != null) {
+            return arrayParameter.select(getEntityManager(), ids);
+        }
+        SingularAttribute<? super T, Serializable> idAttribute = getEntityManager().getMetamodel().entity(entityClass).getId(entityKey);
+        return criteria()
+                .in(idAttribute, ids.toArray(new Serializable[0]))
+                .getResultList();
+    }
+
+    int deleteByIdsInList(Collection<Serializable> pks) {
+        final IdArrayParameter<T> arrayParameter = getIdArrayParameter();
+        if (arrayParameter != null) {
+            return arrayParameter.delete(getEntityManager(), pks);
+        }
+        final String idFieldName = getEntityManager().getMetamodel().entity(entityClass).getId(entityKey).getName();
+        return getEntityManager().createQuery("DELETE from " + entityClass.getSimpleName() + " e WHERE e." + idFieldName + " IN :ids")
+                .setParameter("ids", pks).executeUpdate();
+    }
+
+    /**
+     * @return tuples of id and key attributes of records matching any of the keys, string attributes are lowered by the database
+     * when ignoring case
+     */
+    private List<Tuple> findKeys(List<List<Object>> keys, boolean ignoreCase, SingularAttribute<? super T, ?>[] key) {
+        final CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        final CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        final Root<T> root = query.from(entityClass);
+        final List<Selection<?>> selections = new ArrayList<>();
+        selections.add(root.get(getEntityManager().getMetamodel().entity(entityClass).getId(entityKey)));
+        final List<Expression<?>> keyExpressions = new ArrayList<>();
+        final boolean[] lowered = new boolean[key.length];
+        for (int i = 0; i < key.length; i++) {
+            final Path<?> path = root.get(key[i]);
+            lowered[i] = ignoreCase && String.class.equals(key[i].getJavaType());
+            final Expression<?> keyExpression = lowered[i] ? cb.lower((Expression<String>) path) : path;
+            selections.add(keyExpression);
+            keyExpressions.add(keyExpression);
+        }
+        query.multiselect(selections);
+        final List<Predicate> matches = new ArrayList<>(keys.size());
+        for (List<Object> values : keys) {
+            final Predicate[] equals = new Predicate[key.length];
+            for (int i = 0; i < key.length; i++) {
+                //both sides are lowered by the database so its case rules apply
+                equals[i] = lowered[i] ? cb.equal(keyExpressions.get(i), cb.lower(cb.literal((String) values.get(i))))
+                        : cb.equal(keyExpressions.get(i), values.get(i));
+            }
+            matches.add(equals.length == 1 ? equals[0] : cb.and(equals));
+        }
+        query.where(cb.or(matches.toArray(new Predicate[0])));
+        return getEntityManager().createQuery(query).getResultList();
+    }
+
+    private static Object normalizeKeyValue(Object value, boolean ignoreCase) {
+        return ignoreCase && value instanceof String ? ((String) value).toLowerCase(Locale.ROOT) : value;
+    }
+
+    private IdTempTable<T> getIdTempTable() {
+        if (idTempTable == null) {
+            idTempTable = Optional.ofNullable(IdTempTable.of(getEntityManager(), entityClass));
+            if (!idTempTable.isPresent()) {
+                LOG.warning(format("Temporary tables are not supported for entity %s, falling back to IN lists.", entityClass.getName()));
+            }
+        }
+        return idTempTable.orElse(null);
+    }
+
+    private static Set<Serializable> distinctIds(Collection<? extends Serializable> ids) {
+        if (ids == null) {
+            return Collections.emptySet();
+        }
+        return ids.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private IdArrayParameter<T> getIdArrayParameter() {
+        if (idFilterStrategy != IdFilterStrategy.ARRAY_PARAMETER) {
+            return null;
+        }
+        if (idArrayParameter == null) {
+            idArrayParameter = Optional.ofNullable(IdArrayParameter.of(getEntityManager(), entityClass));
+            if (!idArrayParameter.isPresent()) {
+                LOG.fine(format("Array parameters are not supported for entity %s, falling back to IN lists.", entityClass.getName()));
+            }
+        }
+        return idArrayParameter.orElse(null);
+    }
+
+    /**
+     * @return the id converted to the entity id type when it is a number of another type, e.g. <code>Long</code> to <code>Integer</code>
+     */
+    private Serializable toEntityKey(Serializable id) {
+        final Class<?> idType = getEntityKey();
+        if (idType == null || idType.isInstance(id) || !(id instanceof Number)) {
+            return id;
+        }
+        final Number number = (Number) id;
+        if (Integer.class.equals(idType) || int.class.equals(idType)) {
+            return number.intValue();
+        } else if (Long.class.equals(idType) || long.class.equals(idType)) {
+            return number.longValue();
+        } else if (Short.class.equals(idType) || short.class.equals(idType)) {
+            return number.shortValue();
+        } else if (BigInteger.class.equals(idType)) {
+            return BigInteger.valueOf(number.longValue());
+        } else if (BigDecimal.class.equals(idType)) {
+            return new BigDecimal(number.toString());
+        }
+        return id;
+    }
+
+    private static <Q extends TypedQuery<?>> Q applyOptions(Q query, QueryOptions queryOptions) {
+        return queryOptions != null ? queryOptions.applyTo(query) : query;
+    }
+
+    private <R> R readOnly(Supplier<R> work) {
+        final Session session = getEntityManager().unwrap(Session.class);
+        session.setDefaultReadOnly(true);
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        return work.get();
+    }
+
+    /**
+     * @return a future completed by the work run in a new transaction on the caller thread
+     */
+    private <R> CompletableFuture<R> inNewTransaction(Supplier<R> work) {
+        final CompletableFuture<R> result = new CompletableFuture<>();
+        try {
+            result.complete(contextualWork.inNewTransaction(work));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private static <R> R await(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static List<Serializable> padToPowerOfTwo(List<Serializable> ids) {
+        final int paddedSize = nextPowerOfTwo(ids.size());
+        final List<Serializable> padded = new ArrayList<>(paddedSize);
+        padded.addAll(ids);
+        while (padded.size() < paddedSize) {
+            padded.add(ids.get(ids.size() - 1));
+        }
+        return padded;
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    private boolean isSingleFlight() {
+        return singleFlights.of(entityClass) != null && !entityManager.isJoinedToTransaction();
+    }
+
+    private BatchLoader<T> getBatchLoader() {
+        return batchLoaders.getOrEnable(entityClass, () -> newBatchLoader(DEFAULT_BATCH_LOADER_SIZE, DEFAULT_BATCH_LOADER_WINDOW));
+    }
+
+    private BatchLoader<T> newBatchLoader(int maxBatchSize, Duration window) {
+        return new BatchLoader<>(ids -> criteriaExecutor.supplyAsync(() -> {
+            getMetrics().increment(CrudMetrics.BATCH_LOAD);
+            return findByIds(ids, MissingIdPolicy.SKIP);
+        }), this::toEntityKey, criteriaExecutor, maxBatchSize, window);
+    }
+
+    private void onMiss(Serializable id) {
+        entityMetrics.miss(entityClass, id);
+    }
+
+    /**
+     * Clears the negative cache of the entity now and again when current transaction commits
+     */
+    void clearNegativeCache() {
+        entityCaches.clearNegativeCache(entityClass);
+    }
+
+    /**
+     * Records the changes in the outbox and publishes their events, see {@link ChangeRecorder}
+     */
+    boolean isRecordingChanges() {
+        return changeRecorder.isRecording(entityClass);
+    }
+
+    /**
+     * @return the ids of existing records, which are locked until the end of current transaction
+     */
+    Set<Serializable> lockExistingIds(Collection<Serializable> ids) {
+        final SingularAttribute<? super T, Serializable> idAttribute = getEntityManager().getMetamodel().entity(entityClass).getId(entityKey);
+        final CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        final CriteriaQuery<Serializable> query = cb.createQuery(Serializable.class);
+        final Root<T> root = query.from(entityClass);
+        query.select(root.get(idAttribute)).where(root.get(idAttribute).in(ids));
+        return new HashSet<>(getEntityManager().createQuery(query)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList());
+    }
+
+    void recordChanges(ChangeRecord.Operation operation, Collection<T> entities, Function<T, List<String>> changedAttributes) {
+        changeRecorder.record(getEntityManager(), entityClass, operation, entities, entity -> entity.getId(), this::getVersion, changedAttributes);
+    }
+
+    /**
+     * @return attributes of the managed entity which differ from its loaded state, <code>null</code> when the outbox is disabled
+     */
+    List<String> changedAttributes(T managed) {
+        if (!changeRecorder.isOutboxEnabled(entityClass)) {
+            return null;
+        }
+        final SharedSessionContractImplementor session = getEntityManager().unwrap(SharedSessionContractImplementor.class);
+        final EntityEntry entry = session.getPersistenceContext().getEntry(managed);
+        if (entry == null || entry.getLoadedState() == null) {
+            return null;
+        }
+        final EntityPersister persister = entry.getPersister();
+        final int[] dirty = persister.findDirty(persister.getPropertyValues(managed), entry.getLoadedState(), managed, session);
+        if (dirty == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(dirty)
+                .mapToObj(property -> persister.getPropertyNames()[property])
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Removes the managed instance of the record, if any, so the persistence context doesn't flush stale state over a bulk update.
+     */
+    private void detachFromPersistenceContext(Serializable id) {
+        final SharedSessionContractImplementor session = getEntityManager().unwrap(SharedSessionContractImplementor.class);
+        final Object managed = session.getPersistenceContext()
+                .getEntity(session.generateEntityKey(id, session.getFactory().getMetamodel().entityPersister(entityClass)));
+        if (managed != null) {
+            session.flush();
+            getEntityManager().detach(managed);
+        }
+    }
+
+    private void evictFromNearCache(Serializable id) {
+        evictAllFromNearCache(Collections.singleton(id));
+    }
+
+    /**
+     * Evicts the near cache entries now and again when current transaction completes
+     */
+    void evictAllFromNearCache(Collection<Serializable> ids) {
+        entityCaches.evict(entityClass, ids.stream().map(this::toEntityKey).collect(Collectors.toList()));
+    }
+
+    private SingularAttribute<? super T, ?> getVersionAttribute() {
+        final EntityType<T> entityType = getEntityManager().getMetamodel().entity(entityClass);
+        if (!entityType.hasVersionAttribute()) {
+            return null;
+        }
+        for (SingularAttribute<? super T, ?> attribute : entityType.getSingularAttributes()) {
+            if (attribute.isVersion()) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> if the version is a number which can be incremented by a statement, otherwise it is a timestamp
+     */
+    private static boolean isNumericVersion(SingularAttribute<?, ?> versionAttribute) {
+        final Class<?> type = versionAttribute.getJavaType();
+        return Number.class.isAssignableFrom(type) || type.isPrimitive();
+    }
+
+    /**
+     * @return version of the record in the database, <code>null</code> when the record is not found
+     */
+    private Object readVersion(Serializable id) {
+        final SingularAttribute<? super T, Object> version = (SingularAttribute<? super T, Object>) getVersionAttribute();
+        final SingularAttribute<? super T, Serializable> idAttribute = getEntityManager().getMetamodel().entity(entityClass).getId(entityKey);
+        return criteria()
+                .select(Object.class, attribute(version))
+                .eq(idAttribute, id)
+                .getOptionalResult();
+    }
+
+    private Object getVersion(T entity) {
+        final SingularAttribute<? super T, ?> version = getVersionAttribute();
+        return version == null ? null : getAttributeValue(version, entity);
+    }
+
+    private Object getAttributeValue(Attribute<?, ?> attribute, Object entity) {
+        final Member member = attribute.getJavaMember();
+        try {
+            if (member instanceof Field) {
+                ((Field) member).setAccessible(true);
+                return ((Field) member).get(entity);
+            } else if (member instanceof Method) {
+                ((Method) member).setAccessible(true);
+                return ((Method) member).invoke(entity);
+            }
+        } catch (Exception e) {
+            LOG.warning(format("Could not get value of attribute %s from entity %s.", attribute.getName(), entityClass.getName()));
+        }
+        return null;
+    }
+
+    Set<Serializable> collectEntitiesPk(List<T> entities) {
         if(entities == null || entities.isEmpty()) {
             return Collections.emptySet();
         }
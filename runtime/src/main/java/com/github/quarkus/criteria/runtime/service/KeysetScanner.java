@@ -0,0 +1,188 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import org.apache.deltaspike.data.api.criteria.Criteria;
+import org.apache.deltaspike.data.impl.criteria.QueryCriteria;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.SingularAttribute;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Reads the entities matching the restrictions of a criteria in primary key order, one chunk at a time, using keyset
+ * pagination (<code>id &gt; last id of previous chunk</code>) so each chunk costs the same no matter how deep the scan is.
+ * <p>
+ * Only restrictions (and joins) of the criteria are used, its ordering and selections are ignored. Queries are distinct so
+ * to-many joins don't repeat an entity or split it across chunks. Entities need a single attribute comparable primary key.
+ *
+ * @param <T> the scanned entity type
+ */
+public class KeysetScanner<T extends PersistenceEntity> {
+
+    private final EntityManager entityManager;
+    private final Class<T> entityClass;
+    private final SingularAttribute<? super T, ?> idAttribute;
+    private final QueryCriteria<T, ?> criteria;
+    private final int chunkSize;
+
+    /**
+     * @param entityManager the entity manager, it should resolve the persistence context of the calling thread
+     * @param entityClass   the scanned entity
+     * @param idAttribute   the entity primary key
+     * @param criteria      restrictions of scanned entities, <code>null</code> to scan all entities
+     * @param chunkSize     max number of entities per chunk
+     */
+    public KeysetScanner(EntityManager entityManager, Class<T> entityClass, SingularAttribute<? super T, ?> idAttribute,
+                         Criteria<T, ?> criteria, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size should be greater than zero");
+        }
+        if (!Comparable.class.isAssignableFrom(idAttribute.getJavaType())) {
+            throw new IllegalArgumentException(format("Entity %s primary key should be comparable to be scanned.", entityClass.getName()));
+        }
+        if (criteria != null && !(criteria instanceof QueryCriteria)) {
+            throw new IllegalArgumentException("Only DeltaSpike query criteria are supported.");
+        }
+        this.entityManager = entityManager;
+        this.entityClass = entityClass;
+        this.idAttribute = idAttribute;
+        this.criteria = (QueryCriteria<T, ?>) criteria;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param after first id (exclusive) of the chunk, <code>null</code> to start at <code>from</code>
+     * @param from  lower bound (inclusive) of the scanned range, <code>null</code> for no lower bound
+     * @param to    upper bound (exclusive) of the scanned range, <code>null</code> for no upper bound
+     * @return the next chunk of entities ordered by id, an empty list when the range is exhausted
+     */
+    public List<T> nextChunk(Comparable after, Comparable from, Comparable to) {
+        final CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<T> query = builder.createQuery(entityClass);
+        final Root<T> root = query.from(entityClass);
+        final Path<Comparable> id = root.get(idAttribute.getName());
+        final List<Predicate> predicates = restrictions(builder, root);
+        if (after != null) {
+            predicates.add(builder.greaterThan(id, after));
+        }
+        if (from != null) {
+            predicates.add(builder.greaterThanOrEqualTo(id, from));
+        }
+        if (to != null) {
+            predicates.add(builder.lessThan(id, to));
+        }
+        query.select(root)
+                .distinct(true)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(builder.asc(id));
+        return entityManager.createQuery(query)
+                .setMaxResults(chunkSize)
+                .getResultList();
+    }
+
+    /**
+     * @return number of entities matching the criteria restrictions
+     */
+    public long count() {
+        final CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        final Root<T> root = query.from(entityClass);
+        query.select(builder.countDistinct(root))
+                .where(restrictions(builder, root).toArray(new Predicate[0]));
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    /**
+     * Splits the scanned entities into id ranges. Integral ids are split evenly between their min and max values,
+     * other ids are split on the keys found at equally spaced offsets.
+     *
+     * @param partitions number of ranges
+     * @return up to <code>partitions + 1</code> range boundaries, first and last are <code>null</code> (unbounded),
+     * range <code>i</code> goes from boundary <code>i</code> (inclusive) to boundary <code>i + 1</code> (exclusive)
+     */
+    public List<Comparable> boundaries(int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Number of partitions should be greater than zero");
+        }
+        final List<Comparable> boundaries = new ArrayList<>(Collections.nCopies(partitions + 1, null));
+        if (partitions == 1) {
+            return boundaries;
+        }
+        final Class<?> idType = idAttribute.getJavaType();
+        if (Arrays.asList(Long.class, Integer.class, Short.class).contains(idType)) {
+            final Object[] minMax = minMax();
+            if (minMax[0] == null) {
+                return boundaries;
+            }
+            final long min = ((Number) minMax[0]).longValue();
+            final long step = Math.max(1, (((Number) minMax[1]).longValue() - min) / partitions + 1);
+            for (int i = 1; i < partitions; i++) {
+                boundaries.set(i, toIdType(idType, min + step * i));
+            }
+            return boundaries;
+        }
+        final long total = count();
+        final List<Comparable> keys = new ArrayList<>();
+        for (int i = 1; i < partitions; i++) {
+            Comparable key = keyAt(total * i / partitions);
+            if (key == null) { //rows removed meanwhile
+                break;
+            }
+            keys.add(key);
+        }
+        keys.add(0, null);
+        keys.add(null);
+        return keys;
+    }
+
+    private Object[] minMax() {
+        final CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Object[]> query = builder.createQuery(Object[].class);
+        final Root<T> root = query.from(entityClass);
+        final Path<Number> id = root.get(idAttribute.getName());
+        query.multiselect(builder.min(id), builder.max(id))
+                .where(restrictions(builder, root).toArray(new Predicate[0]));
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    private Comparable keyAt(long offset) {
+        final CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        final CriteriaQuery<Comparable> query = builder.createQuery(Comparable.class);
+        final Root<T> root = query.from(entityClass);
+        final Path<Comparable> id = root.get(idAttribute.getName());
+        query.select(id)
+                .distinct(true)
+                .where(restrictions(builder, root).toArray(new Predicate[0]))
+                .orderBy(builder.asc(id));
+        final List<Comparable> keys = entityManager.createQuery(query)
+                .setFirstResult((int) Math.min(offset, Integer.MAX_VALUE))
+                .setMaxResults(1)
+                .getResultList();
+        return keys.isEmpty() ? null : keys.get(0);
+    }
+
+    private List<Predicate> restrictions(CriteriaBuilder builder, Root<T> root) {
+        return criteria != null ? new ArrayList<>(criteria.predicates(builder, (Path) root)) : new ArrayList<>();
+    }
+
+    private static Comparable toIdType(Class<?> idType, long value) {
+        if (idType == Integer.class) {
+            return (int) value;
+        }
+        if (idType == Short.class) {
+            return (short) value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.jdbc.OutboxTable;
+import com.github.quarkus.criteria.runtime.model.ChangeRecord;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Relays the {@link ChangeRecord}s of an outbox, see {@link CrudService#enableOutbox()}. Records are read in batches and
+ * acknowledged (removed) in the same transaction once the handler accepts them. Semantics are:
+ * <ul>
+ * <li>at least once: a batch whose handler fails is relayed again by next call, handlers must be idempotent;</li>
+ * <li>single relay: records are not claimed, so concurrent relays of the same outbox (e.g. one per application instance)
+ * deliver the same records more than once. Run a single relay per outbox table;</li>
+ * <li>commit order is not guaranteed: records are read by their sequence which is assigned at insert time, a transaction
+ * which appended records earlier may commit later, so its records may be relayed after records of a later batch.
+ * Use the entity version to discard stale changes.</li>
+ * </ul>
+ */
+@ApplicationScoped
+public class OutboxRelay {
+
+    private static final Logger LOG = Logger.getLogger(OutboxRelay.class.getName());
+
+    @Inject
+    protected EntityManager entityManager;
+
+    @Inject
+    protected ContextualWork contextualWork;
+
+    /**
+     * Relays the records of the default outbox table
+     */
+    public long relay(int batchSize, Consumer<List<ChangeRecord>> handler) {
+        return relay(OutboxTable.DEFAULT_TABLE_NAME, batchSize, handler);
+    }
+
+    /**
+     * Relays all records of the outbox, each batch in its own transaction
+     *
+     * @param tableName the outbox table
+     * @param batchSize max number of records passed to the handler at once
+     * @param handler   receives each batch of records, records are acknowledged when it returns normally
+     * @return number of relayed records
+     */
+    public long relay(String tableName, int batchSize, Consumer<List<ChangeRecord>> handler) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Outbox relay batch size should be greater than zero");
+        }
+        final OutboxTable outbox = OutboxTable.named(tableName);
+        long relayed = 0;
+        while (true) {
+            final int acknowledged = contextualWork.inNewTransaction(() -> {
+                final List<ChangeRecord> records = outbox.read(entityManager, batchSize);
+                if (records.isEmpty()) {
+                    return 0;
+                }
+                handler.accept(records);
+                return outbox.acknowledge(entityManager, records);
+            });
+            if (acknowledged == 0) {
+                break;
+            }
+            relayed += acknowledged;
+        }
+        LOG.fine(format("Relayed %d records of outbox %s.", relayed, tableName));
+        return relayed;
+    }
+}
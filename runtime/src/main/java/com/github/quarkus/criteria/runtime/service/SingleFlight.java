@@ -0,0 +1,102 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import javax.persistence.Parameter;
+import javax.persistence.Query;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates identical concurrent executions: while an execution for a key is in flight, callers with the same key
+ * wait for it and receive its result instead of executing the work again.
+ * <p>
+ * Results are shared between callers, they must not be changed by callers. Single flights are managed by {@link SingleFlights}.
+ */
+public class SingleFlight {
+
+    private final Map<Object, Flight> inFlight = new ConcurrentHashMap<>();
+
+    SingleFlight() {
+    }
+
+    /**
+     * A query fingerprint is composed by the query string, bound parameter values and pagination so queries with
+     * the same fingerprint return the same results.
+     *
+     * @param query a JPA query with all parameters bound
+     * @return the query fingerprint
+     */
+    public static Object fingerprint(Query query) {
+        //criteria queries only expose their parameters through the underlying hibernate query
+        final org.hibernate.query.Query<?> hibernateQuery = query.unwrap(org.hibernate.query.Query.class);
+        final List<Object> fingerprint = new ArrayList<>();
+        fingerprint.add(hibernateQuery.getQueryString());
+        fingerprint.add(query.getFirstResult());
+        fingerprint.add(query.getMaxResults());
+        final List<Parameter<?>> parameters = new ArrayList<>(hibernateQuery.getParameters());
+        parameters.sort(Comparator.comparing(parameter -> String.valueOf(parameter.getName() != null ? parameter.getName() : parameter.getPosition())));
+        for (Parameter<?> parameter : parameters) {
+            fingerprint.add(parameter.getName() != null ? parameter.getName() : parameter.getPosition());
+            Object value = hibernateQuery.isBound(parameter) ? hibernateQuery.getParameterValue(parameter) : null;
+            fingerprint.add(value instanceof Object[] ? Arrays.asList((Object[]) value) : value);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Executes the work unless an execution with the same key is in flight, in this case waits for its result.
+     *
+     * @param key  the execution key, e.g. a query fingerprint
+     * @param work the work to execute
+     * @return the result of the work, possibly shared with other callers
+     */
+    public <R> R execute(Object key, Supplier<R> work) {
+        final Flight flight = new Flight();
+        final Flight existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            R result = work.get();
+            flight.result.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return number of callers waiting for an in flight execution
+     */
+    public int waiting() {
+        return inFlight.values().stream()
+                .mapToInt(flight -> flight.waiting.get())
+                .sum();
+    }
+
+    private static class Flight {
+
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        <R> R join() {
+            waiting.incrementAndGet();
+            try {
+                return (R) result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+}
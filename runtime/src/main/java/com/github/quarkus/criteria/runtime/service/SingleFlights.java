@@ -0,0 +1,38 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.util.EntityRegistry;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * {@link SingleFlight}s of the entities, shared by all services of an entity
+ */
+@ApplicationScoped
+public class SingleFlights {
+
+    private final EntityRegistry<SingleFlight> singleFlights = new EntityRegistry<>();
+
+    /**
+     * Enables single flight executions of given entity queries
+     */
+    public SingleFlight enable(Class<?> entityClass) {
+        return singleFlights.getOrRegister(entityClass, entity -> new SingleFlight());
+    }
+
+    public void disable(Class<?> entityClass) {
+        singleFlights.remove(entityClass);
+    }
+
+    /**
+     * @return single flight of given entity or <code>null</code> if it is not enabled for the entity
+     */
+    public SingleFlight of(Class<?> entityClass) {
+        return singleFlights.get(entityClass);
+    }
+
+    @PreDestroy
+    public void clear() {
+        singleFlights.clear();
+    }
+}
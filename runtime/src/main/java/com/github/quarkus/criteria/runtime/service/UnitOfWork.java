@@ -0,0 +1,119 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Groups many {@link CrudService} writes in a single transaction which is flushed once, at the end of the work.
+ * <p>
+ * Inside a unit of work <code>insert</code> and <code>update</code> don't flush, hooks still run, and the session flush mode is
+ * <code>COMMIT</code> so queries don't flush pending changes either. Queued changes are written by hibernate action queue
+ * (inserts, updates then deletes) using JDBC batches, inserts and updates are ordered by entity so interleaved entities
+ * don't break the batches.
+ * <p>
+ * Queries executed inside the unit don't see the queued changes, so validations based on queries, e.g.
+ * {@link CrudService#findUniqueConflicts(java.util.Collection, boolean, javax.persistence.metamodel.SingularAttribute[])},
+ * miss conflicts between records written by the same unit.
+ * <p>
+ * The unit belongs to its transaction: work running in a new transaction (e.g. {@link ContextualWork#inNewTransaction(Supplier)})
+ * is not part of it and flushes as usual.
+ */
+@ApplicationScoped
+public class UnitOfWork {
+
+    private static final Logger LOG = Logger.getLogger(UnitOfWork.class.getName());
+    private static final int DEFAULT_BATCH_SIZE = 50;
+
+    @Inject
+    protected EntityManager entityManager;
+
+    @Inject
+    protected TransactionSynchronizationRegistry transactionRegistry;
+
+    /**
+     * Runs the work as a unit of work, joining current transaction (if any). Nested units are part of the outer one.
+     */
+    @Transactional
+    public <R> R execute(Supplier<R> work) {
+        return execute(DEFAULT_BATCH_SIZE, work);
+    }
+
+    /**
+     * @param batchSize JDBC batch size used by the final flush
+     */
+    @Transactional
+    public <R> R execute(int batchSize, Supplier<R> work) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Unit of work batch size should be greater than zero");
+        }
+        if (isActive()) {
+            return work.get();
+        }
+        final Session session = entityManager.unwrap(Session.class);
+        final FlushMode flushMode = session.getHibernateFlushMode();
+        final Integer jdbcBatchSize = session.getJdbcBatchSize();
+        session.setHibernateFlushMode(FlushMode.COMMIT);
+        session.setJdbcBatchSize(batchSize);
+        final Unit unit = new Unit();
+        transactionRegistry.putResource(UnitOfWork.class, unit);
+        try {
+            final R result = work.get();
+            final long start = System.currentTimeMillis();
+            session.flush();
+            LOG.fine(format("Unit of work flushed in %d ms.", System.currentTimeMillis() - start));
+            unit.afterFlush.forEach(Runnable::run);
+            return result;
+        } finally {
+            unit.active = false;
+            session.setHibernateFlushMode(flushMode);
+            session.setJdbcBatchSize(jdbcBatchSize);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if current transaction is running a unit of work
+     */
+    public boolean isActive() {
+        return activeUnit() != null;
+    }
+
+    /**
+     * Runs the action after the final flush of current unit of work, e.g. to read versions incremented by the flush.
+     * Without an active unit the action runs right away. Actions run in the order they were added.
+     */
+    public void afterFlush(Runnable action) {
+        final Unit unit = activeUnit();
+        if (unit == null) {
+            action.run();
+        } else {
+            unit.afterFlush.add(action);
+        }
+    }
+
+    private Unit activeUnit() {
+        if (transactionRegistry.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            return null;
+        }
+        final Unit unit = (Unit) transactionRegistry.getResource(UnitOfWork.class);
+        return unit != null && unit.active ? unit : null;
+    }
+
+    private static class Unit {
+
+        private final List<Runnable> afterFlush = new ArrayList<>();
+        private boolean active = true;
+    }
+}
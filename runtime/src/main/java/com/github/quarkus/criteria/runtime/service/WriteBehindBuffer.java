@@ -0,0 +1,205 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Bounded buffer of pending inserts written in batches by a background writer, see {@link CrudService#enableWriteBehind(int, int, Duration)}.
+ * <p>
+ * Pending inserts are written when <code>batchSize</code> entities are buffered or when <code>maxDelay</code>, which starts at
+ * the first pending insert, elapses. Only one writer runs at a time and it writes every pending batch, each one in its own transaction,
+ * so callers are blocked (backpressure) when <code>capacity</code> inserts are pending. Buffers are managed by {@link WriteBehindBuffers}.
+ *
+ * @param <T> the inserted entity type
+ */
+public class WriteBehindBuffer<T extends PersistenceEntity> {
+
+    private static final Logger LOG = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+    private final Class<T> entityClass;
+    private final Consumer<List<T>> batchWrite;
+    private final CriteriaExecutor criteriaExecutor;
+    private final int batchSize;
+    private final long maxDelayMicros;
+    private final BlockingQueue<PendingInsert<T>> pending;
+    private final Set<CompletableFuture<T>> unwritten = ConcurrentHashMap.newKeySet(); //pending or being written
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final ReentrantLock lock = new ReentrantLock();
+    private ScheduledFuture<?> scheduledWrite;
+    private volatile boolean closed;
+
+    /**
+     * @param batchWrite       inserts a batch of entities in its own transaction
+     * @param criteriaExecutor executor which runs the writer and schedules time based writes
+     * @param capacity         max number of pending inserts
+     * @param batchSize        max number of entities inserted per transaction
+     * @param maxDelay         max time an insert stays pending
+     */
+    WriteBehindBuffer(Class<T> entityClass, Consumer<List<T>> batchWrite, CriteriaExecutor criteriaExecutor, int capacity,
+                      int batchSize, Duration maxDelay) {
+        if (batchSize < 1 || capacity < batchSize) {
+            throw new IllegalArgumentException("Write behind batch size should be greater than zero and not greater than capacity");
+        }
+        if (maxDelay == null || maxDelay.isNegative() || maxDelay.isZero()) {
+            throw new IllegalArgumentException("Write behind max delay should be positive");
+        }
+        this.entityClass = entityClass;
+        this.batchWrite = batchWrite;
+        this.criteriaExecutor = criteriaExecutor;
+        this.batchSize = batchSize;
+        this.maxDelayMicros = TimeUnit.NANOSECONDS.toMicros(maxDelay.toNanos());
+        this.pending = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Buffers the insert, blocking the caller while the buffer is full
+     *
+     * @return a stage completed with the inserted entity once its batch is committed, or exceptionally if the batch fails
+     * @throws IllegalStateException if the buffer is closed
+     */
+    public CompletionStage<T> insert(T entity) {
+        if (entity == null) {
+            throw new RuntimeException("Record cannot be null");
+        }
+        if (closed) {
+            throw new IllegalStateException(format("Write behind of entity %s is disabled.", entityClass.getName()));
+        }
+        final PendingInsert<T> insert = new PendingInsert<>(entity);
+        unwritten.add(insert.result);
+        insert.result.whenComplete((written, failure) -> unwritten.remove(insert.result));
+        try {
+            while (!pending.offer(insert, maxDelayMicros, TimeUnit.MICROSECONDS)) {
+                write(); //the writer may be waiting for the delay, buffer is full so there is at least one batch
+            }
+        } catch (InterruptedException e) {
+            unwritten.remove(insert.result);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(format("Interrupted while waiting for write behind buffer of entity %s.", entityClass.getName()), e);
+        }
+        if (pending.size() >= batchSize || closed) {
+            write();
+        } else {
+            scheduleWrite();
+        }
+        return insert.result;
+    }
+
+    /**
+     * Writes pending inserts without waiting for the delay
+     *
+     * @return a stage completed when inserts buffered at the time of the call are written, failed inserts are reported by their own stages
+     */
+    public CompletionStage<Void> flush() {
+        final CompletableFuture<?>[] results = unwritten.toArray(new CompletableFuture[0]);
+        write();
+        return CompletableFuture.allOf(results).handle((result, failure) -> null);
+    }
+
+    /**
+     * Rejects new inserts and writes pending ones
+     */
+    public CompletionStage<Void> close() {
+        closed = true;
+        return flush();
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return number of pending inserts
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    private void scheduleWrite() {
+        lock.lock();
+        try {
+            if (scheduledWrite == null) {
+                scheduledWrite = criteriaExecutor.getScheduler().schedule(this::write, maxDelayMicros, TimeUnit.MICROSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write() {
+        if (!writing.compareAndSet(false, true)) {
+            return; //running writer takes every pending insert
+        }
+        lock.lock();
+        try {
+            if (scheduledWrite != null) {
+                scheduledWrite.cancel(false);
+                scheduledWrite = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            criteriaExecutor.supplyAsync(this::writePending)
+                    .whenComplete((written, failure) -> afterWrite());
+        } catch (RuntimeException e) {
+            LOG.warning(format("Write behind of entity %s could not be dispatched: %s", entityClass.getName(), e.getMessage()));
+            writing.set(false);
+            scheduleWrite(); //executor queue is full, retry after the delay
+        }
+    }
+
+    private int writePending() {
+        int written = 0;
+        final List<PendingInsert<T>> batch = new ArrayList<>(batchSize);
+        while (pending.drainTo(batch, batchSize) > 0) {
+            final List<T> entities = new ArrayList<>(batch.size());
+            batch.forEach(insert -> entities.add(insert.entity));
+            try {
+                batchWrite.accept(entities);
+                batch.forEach(insert -> insert.result.complete(insert.entity));
+                written += batch.size();
+            } catch (RuntimeException e) {
+                LOG.warning(format("Write behind batch of %d %s entities failed: %s", batch.size(), entityClass.getName(), e.getMessage()));
+                batch.forEach(insert -> insert.result.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+        return written;
+    }
+
+    private void afterWrite() {
+        writing.set(false);
+        if (pending.size() >= batchSize || (closed && !pending.isEmpty())) {
+            write();
+        } else if (!pending.isEmpty()) {
+            scheduleWrite(); //inserts buffered after the writer took the last batch
+        }
+    }
+
+    private static class PendingInsert<T> {
+
+        private final T entity;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        PendingInsert(T entity) {
+            this.entity = entity;
+        }
+    }
+}
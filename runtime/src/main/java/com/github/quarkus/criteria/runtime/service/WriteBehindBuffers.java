@@ -0,0 +1,75 @@
+package com.github.quarkus.criteria.runtime.service;
+
+import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import com.github.quarkus.criteria.runtime.util.EntityRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * {@link WriteBehindBuffer}s of the entities, shared by all services of an entity.
+ * <p>
+ * On shutdown pending inserts are written first, waiting up to <code>criteria.write-behind.drain-timeout</code>.
+ */
+@ApplicationScoped
+public class WriteBehindBuffers {
+
+    private static final Logger LOG = Logger.getLogger(WriteBehindBuffers.class.getName());
+
+    @ConfigProperty(name = "criteria.write-behind.drain-timeout", defaultValue = "30S")
+    Duration drainTimeout;
+
+    private final EntityRegistry<WriteBehindBuffer<?>> buffers = new EntityRegistry<>();
+
+    /**
+     * Enables the write behind buffer of its entity, the previous buffer (if any) is closed
+     */
+    public <T extends PersistenceEntity> WriteBehindBuffer<T> enable(WriteBehindBuffer<T> buffer) {
+        final WriteBehindBuffer<?> previous = buffers.register(buffer.getEntityClass(), buffer);
+        if (previous != null) {
+            previous.close();
+        }
+        return buffer;
+    }
+
+    /**
+     * Disables the write behind buffer of given entity, pending inserts are written before the returned stage completes
+     */
+    public CompletionStage<Void> disable(Class<?> entityClass) {
+        final WriteBehindBuffer<?> removed = buffers.remove(entityClass);
+        return removed != null ? removed.close() : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * @return the write behind buffer of given entity or <code>null</code> if write behind is not enabled for the entity
+     */
+    public <T extends PersistenceEntity> WriteBehindBuffer<T> of(Class<T> entityClass) {
+        return (WriteBehindBuffer<T>) buffers.get(entityClass);
+    }
+
+    void onShutdown(@Observes ShutdownEvent event) {
+        final long deadline = System.nanoTime() + drainTimeout.toNanos();
+        for (WriteBehindBuffer<?> buffer : buffers.clear()) {
+            try {
+                buffer.close().toCompletableFuture().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                LOG.warning(format("Pending inserts of entity %s were not written in %d ms.", buffer.getEntityClass().getName(), drainTimeout.toMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOG.warning(format("Pending inserts of entity %s failed: %s", buffer.getEntityClass().getName(), e.getMessage()));
+            }
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package com.github.quarkus.criteria.runtime.util;
 
 import com.github.quarkus.criteria.runtime.model.PersistenceEntity;
+import org.apache.deltaspike.data.impl.criteria.QueryCriteria;
+import org.apache.deltaspike.data.impl.criteria.processor.QueryProcessor;
 
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
 import java.io.Serializable;
+import java.lang.reflect.Field;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
 public class CriteriaUtils {
+
+    private static final String ORDER_BY_PROCESSOR = "orderByProcessor";
+
     /**
      * Creates an array of Ids (pks) from a list of entities.
      * It is useful when working with `in clauses` on DeltaSpike criteria
@@ -24,4 +33,22 @@ public class CriteriaUtils {
         }
         return ids.toArray(idsType);
     }
-}
\ No newline at end of file
+
+    /**
+     * Applies the <code>orderAsc</code> and <code>orderDesc</code> of a criteria to a query built from its predicates.
+     * DeltaSpike only applies them in <code>createQuery()</code> so its order by processor is read reflectively.
+     *
+     * @param criteria the criteria whose ordering is applied, the criteria is not changed
+     * @param query    the query to order, its current ordering is replaced
+     * @param root     the criteria entity in the query
+     */
+    public static <T> void applyOrdering(QueryCriteria<T, ?> criteria, CriteriaQuery<?> query, CriteriaBuilder cb, Path<T> root) {
+        try {
+            final Field orderByProcessor = QueryCriteria.class.getDeclaredField(ORDER_BY_PROCESSOR);
+            orderByProcessor.setAccessible(true);
+            ((QueryProcessor<T>) orderByProcessor.get(criteria)).process(query, cb, root);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Ordering of DeltaSpike criteria could not be read.", e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.quarkus.criteria.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Thread safe per entity settings of application scoped beans, e.g. the near cache of each entity. Values are shared by all
+ * services of an entity and go away with the bean which owns the registry.
+ *
+ * @param <V> the registered value type
+ */
+public class EntityRegistry<V> {
+
+    private final Map<Class<?>, V> values = new ConcurrentHashMap<>();
+
+    /**
+     * @return the value of given entity or <code>null</code> if there is no value registered for the entity
+     */
+    public V get(Class<?> entityClass) {
+        return values.get(entityClass);
+    }
+
+    /**
+     * @return the value of given entity, registering the one created by the factory when there is none
+     */
+    public V getOrRegister(Class<?> entityClass, Function<Class<?>, V> factory) {
+        return values.computeIfAbsent(entityClass, factory);
+    }
+
+    /**
+     * @return the value previously registered for the entity or <code>null</code>
+     */
+    public V register(Class<?> entityClass, V value) {
+        return values.put(entityClass, value);
+    }
+
+    /**
+     * @return the removed value or <code>null</code> if there was no value registered for the entity
+     */
+    public V remove(Class<?> entityClass) {
+        return values.remove(entityClass);
+    }
+
+    /**
+     * Removes all values
+     *
+     * @return the removed values
+     */
+    public Collection<V> clear() {
+        final Collection<V> removed = new ArrayList<>();
+        for (Class<?> entityClass : new ArrayList<>(values.keySet())) {
+            final V value = values.remove(entityClass);
+            if (value != null) {
+                removed.add(value);
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.quarkus.criteria.runtime.util;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Logs at most one message per interval, messages logged in between are only counted and reported with the next logged message.
+ */
+public class RateLimitedLogger {
+
+    private final Logger logger;
+    private final long intervalMillis;
+    private final AtomicLong nextLogAt = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public RateLimitedLogger(Logger logger, Duration interval) {
+        this.logger = logger;
+        this.intervalMillis = interval.toMillis();
+    }
+
+    /**
+     * @param level   the log level
+     * @param message supplies the message, it is only called when the message is going to be logged
+     */
+    public void log(Level level, Supplier<String> message) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long next = nextLogAt.get();
+        if (now >= next && nextLogAt.compareAndSet(next, now + intervalMillis)) {
+            final long suppressedMessages = suppressed.getAndSet(0);
+            if (suppressedMessages > 0) {
+                logger.log(level, format("%s (%d similar messages suppressed)", message.get(), suppressedMessages));
+            } else {
+                logger.log(level, message.get());
+            }
+        } else {
+            suppressed.incrementAndGet();
+        }
+    }
+}
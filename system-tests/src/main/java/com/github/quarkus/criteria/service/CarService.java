@@ -10,6 +10,8 @@ import javax.inject.Inject;
 import javax.persistence.criteria.JoinType;
 import javax.transaction.Transactional;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static com.github.quarkus.criteria.runtime.util.CriteriaUtils.toListOfIds;
@@ -78,19 +80,36 @@ public class CarService extends CrudService<Car> implements Serializable {
         validate(car);
     }
 
+    @Override
+    public void beforeInsertBatch(List<Car> cars) {
+        validate(cars);
+    }
+
+    @Override
+    public void beforeUpdateBatch(List<Car> cars) {
+        validate(cars);
+    }
+
     public void validate(Car car) {
-        if (!car.hasModel()) {
-            throw new RuntimeException("Car model cannot be empty");
-        }
-        if (!car.hasName()) {
-            throw new RuntimeException("Car name cannot be empty");
-        }
-        if (car.getPrice() == null) {
-            throw new RuntimeException("Car price cannot be empty");
+        validate(Collections.singletonList(car));
+    }
+
+    /**
+     * Validates all cars with a single uniqueness query
+     */
+    public void validate(List<Car> cars) {
+        for (Car car : cars) {
+            if (!car.hasModel()) {
+                throw new RuntimeException("Car model cannot be empty");
+            }
+            if (!car.hasName()) {
+                throw new RuntimeException("Car name cannot be empty");
+            }
+            if (car.getPrice() == null) {
+                throw new RuntimeException("Car price cannot be empty");
+            }
         }
-        if (count(criteria()
-                .eqIgnoreCase(Car_.name, car.getName())
-                .notEq(Car_.id, car.getId())) > 0) {
+        if (!findUniqueConflicts(cars, true, Car_.name).isEmpty()) {
             throw new RuntimeException("Car name must be unique");
         }
     }
@@ -144,7 +163,7 @@ public class CarService extends CrudService<Car> implements Serializable {
     }
 
     public List<Car> findCarsInList(List<Car> carsToFind) {
-        return criteria().in(Car_.id, toListOfIds(carsToFind, new Integer[0])).getResultList();
+        return findByIds(Arrays.asList(toListOfIds(carsToFind, new Integer[0])));
     }
 
     //just to test criteria on a different entity
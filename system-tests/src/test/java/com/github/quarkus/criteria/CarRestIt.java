@@ -3,26 +3,50 @@ package com.github.quarkus.criteria;
 import com.github.database.rider.core.configuration.DataSetConfig;
 import com.github.database.rider.core.dsl.RiderDSL;
 import com.github.quarkus.criteria.infra.PostgresResource;
+import com.github.quarkus.criteria.model.Car;
+import com.github.quarkus.criteria.runtime.jdbc.SqlArrayType;
+import com.github.quarkus.criteria.runtime.model.IdFilterStrategy;
+import com.github.quarkus.criteria.runtime.model.MissingIdPolicy;
+import com.github.quarkus.criteria.runtime.service.ContextualWork;
+import com.github.quarkus.criteria.service.CarService;
 import io.quarkus.test.common.QuarkusTestResource;
 import io.quarkus.test.junit.QuarkusTest;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.CustomType;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import javax.inject.Inject;
 import javax.json.Json;
 import javax.json.JsonObject;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static io.restassured.RestAssured.given;
 import static javax.ws.rs.core.Response.Status.*;
 import static org.hamcrest.CoreMatchers.*;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 
 @QuarkusTest
 @QuarkusTestResource(PostgresResource.class)
 public class CarRestIt {
 
+    @Inject
+    CarService carService;
+
+    @Inject
+    ContextualWork contextualWork;
+
     @BeforeAll
     public static void initDB() throws SQLException {
         Connection connection = DriverManager.getConnection(System.getProperty("quarkus.datasource.jdbc.url"), "car", "car");
@@ -168,4 +192,71 @@ public class CarRestIt {
             initDB();
         }
     }
+
+    @Test
+    public void shouldFindCarsByIdsBoundAsSingleArrayParameter() {
+        carService.useIdFilterStrategy(IdFilterStrategy.ARRAY_PARAMETER);
+        try {
+            assertThat(carService.findByIds(Arrays.asList(3, 99, 1), MissingIdPolicy.NULL))
+                    .extracting(car -> car != null ? car.getName() : null)
+                    .containsExactly("Model S", null, "Fusion");
+        } finally {
+            carService.useIdFilterStrategy(IdFilterStrategy.IN_LIST);
+        }
+    }
+
+    @Test
+    public void shouldReadArrayValues() {
+        CustomType arrayType = new CustomType(new SqlArrayType("int4"));
+        Object ids = carService.getEntityManager().createNativeQuery("select cast(:ids as int4[]) as ids")
+                .unwrap(NativeQuery.class)
+                .addScalar("ids", arrayType)
+                .setParameter("ids", new Integer[]{1, 2}, arrayType)
+                .getSingleResult();
+        assertThat((Object[]) ids).containsExactly(1, 2);
+    }
+
+    @Test
+    public void shouldClaimDisjointCarsInConcurrentTransactions() throws Exception {
+        CountDownLatch firstClaimed = new CountDownLatch(1);
+        CountDownLatch secondClaimed = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Integer>> first = executor.submit(() -> contextualWork.inNewTransaction(() -> {
+                List<Integer> ids = claimIds(2);
+                firstClaimed.countDown();
+                awaitLatch(secondClaimed); //keeps the rows locked while the other transaction claims
+                return ids;
+            }));
+            Future<List<Integer>> second = executor.submit(() -> {
+                awaitLatch(firstClaimed);
+                return contextualWork.inNewTransaction(() -> {
+                    List<Integer> ids = claimIds(2);
+                    secondClaimed.countDown();
+                    return ids;
+                });
+            });
+            assertThat(first.get(10, TimeUnit.SECONDS)).containsExactly(1, 2);
+            assertThat(second.get(10, TimeUnit.SECONDS)).containsExactly(3, 4);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Integer> claimIds(int max) {
+        return carService.claim(carService.criteria(), max).stream()
+                .map(Car::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static void awaitLatch(CountDownLatch latch) {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new RuntimeException("Concurrent claim did not happen in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
 }